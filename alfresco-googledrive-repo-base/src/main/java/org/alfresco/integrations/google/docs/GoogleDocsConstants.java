@@ -83,6 +83,12 @@ public interface GoogleDocsConstants
     String ALF_SHARED_FILES_FOLDER = "Shared Files";
     String ALF_MY_FILES_FOLDER     = "My Files";
 
+    // Google Drive app properties of a file uploaded for a node: the node, a digest of the content URL uploaded and
+    // the revision the file was kept in Drive at, when it was discarded unchanged
+    String APP_PROPERTY_NODE_ID     = "alfrescoNodeId";
+    String APP_PROPERTY_CONTENT_URL = "alfrescoContentUrl";
+    String APP_PROPERTY_REVISION_ID = "alfrescoRevisionId";
+
     String ALF_SHARED_PATH_FQNS_ELEMENT = "{http://www.alfresco.org/model/application/1.0}shared";
     String ALF_SITES_PATH_FQNS_ELEMENT  = "{http://www.alfresco.org/model/site/1.0}sites";
 
@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software.
+ * -
+ * If the software was purchased under a paid Alfresco license, the terms of
+ * the paid license agreement will prevail.  Otherwise, the software is
+ * provided under the following open source license terms:
+ * -
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * -
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * -
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.alfresco.integrations.google.docs.drive;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+import org.alfresco.service.cmr.repository.ContentReader;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.io.ByteStreams;
+
+/**
+ * In memory index of the MD5 checksum of repository content, keyed by content URL, in the format Google Drive uses for
+ * md5Checksum.
+ *
+ * The content behind a content URL never changes (new content gets a new URL), so an entry never goes stale; the index
+ * only saves reading the content again to hash it.
+ */
+public class ContentChecksumCache
+{
+    private int maxItems = 10000;
+
+    private Cache<String, String> cache;
+
+    public void setMaxItems(int maxItems)
+    {
+        this.maxItems = maxItems;
+    }
+
+    public void init()
+    {
+        cache = CacheBuilder
+            .newBuilder()
+            .maximumSize(maxItems)
+            .build();
+    }
+
+    /**
+     * @param reader a reader onto the content (the content is only read, through a new reader, if the checksum is not
+     *               known yet)
+     * @return The lower case hex MD5 checksum of the content
+     * @throws IOException
+     */
+    public String getChecksum(ContentReader reader) throws IOException
+    {
+        final String contentUrl = reader.getContentUrl();
+        final String cached = cache.getIfPresent(contentUrl);
+        if (cached != null)
+        {
+            return cached;
+        }
+
+        final MessageDigest digest = getDigest("MD5");
+        try (InputStream in = new DigestInputStream(reader.getReader().getContentInputStream(), digest))
+        {
+            ByteStreams.exhaust(in);
+        }
+
+        final String checksum = HexFormat.of().formatHex(digest.digest());
+        cache.put(contentUrl, checksum);
+        return checksum;
+    }
+
+    /**
+     * @param contentUrl a content URL
+     * @return A digest of the content URL, short enough to be kept in a Google Drive app property whatever the content
+     *         store
+     */
+    public static String getContentUrlDigest(String contentUrl)
+    {
+        return HexFormat.of().formatHex(
+            getDigest("SHA-256").digest(contentUrl.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static MessageDigest getDigest(String algorithm)
+    {
+        try
+        {
+            return MessageDigest.getInstance(algorithm);
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            // Every Java platform supports MD5 and SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software.
+ * -
+ * If the software was purchased under a paid Alfresco license, the terms of
+ * the paid license agreement will prevail.  Otherwise, the software is
+ * provided under the following open source license terms:
+ * -
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * -
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * -
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.alfresco.integrations.google.docs.drive;
+
+import java.io.InputStream;
+
+import org.alfresco.service.cmr.repository.ContentReader;
+
+import com.google.api.client.http.AbstractInputStreamContent;
+
+/**
+ * Upload content streamed straight from the content store, with its length known upfront.
+ *
+ * A content reader can only be read once, so every (re)send of the request reads the content through a new reader
+ * onto the same content; that way the request can be retried.
+ */
+public class ContentReaderContent extends AbstractInputStreamContent
+{
+    private final ContentReader reader;
+
+    public ContentReaderContent(String type, ContentReader reader)
+    {
+        super(type);
+        this.reader = reader;
+    }
+
+    @Override
+    public InputStream getInputStream()
+    {
+        return reader.getReader().getContentInputStream();
+    }
+
+    @Override
+    public long getLength()
+    {
+        return reader.getSize();
+    }
+
+    @Override
+    public boolean retrySupported()
+    {
+        return true;
+    }
+
+    @Override
+    public ContentReaderContent setType(String type)
+    {
+        return (ContentReaderContent) super.setType(type);
+    }
+
+    @Override
+    public ContentReaderContent setCloseInputStream(boolean closeInputStream)
+    {
+        return (ContentReaderContent) super.setCloseInputStream(closeInputStream);
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software.
+ * -
+ * If the software was purchased under a paid Alfresco license, the terms of
+ * the paid license agreement will prevail.  Otherwise, the software is
+ * provided under the following open source license terms:
+ * -
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * -
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * -
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.alfresco.integrations.google.docs.drive;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import com.google.api.client.auth.oauth2.Credential;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * In memory cache of the OAuth2 credentials of the users (per tenant). A cached credential is trusted, without asking
+ * Google to validate it, until shortly before its access token is known to expire.
+ *
+ * Entries expire when the user has not used Google Drive for a while, so the cache also tells which users are currently
+ * active.
+ */
+public class CredentialCache
+{
+    private static final String USER_KEY_SEPARATOR = "|";
+
+    private int maxItems          = 1000;
+    private int timeToLiveSeconds = 3600;
+    private int expirySkewSeconds = 120;
+
+    private Cache<String, Credential> cache;
+
+    public void setMaxItems(int maxItems)
+    {
+        this.maxItems = maxItems;
+    }
+
+    public void setTimeToLiveSeconds(int timeToLiveSeconds)
+    {
+        this.timeToLiveSeconds = timeToLiveSeconds;
+    }
+
+    public void setExpirySkewSeconds(int expirySkewSeconds)
+    {
+        this.expirySkewSeconds = expirySkewSeconds;
+    }
+
+    public void init()
+    {
+        cache = CacheBuilder
+            .newBuilder()
+            .maximumSize(maxItems)
+            .expireAfterAccess(timeToLiveSeconds, TimeUnit.SECONDS)
+            .build();
+    }
+
+    /**
+     * @param userKey
+     * @return The cached credential of the user, or null if there is none or its access token is about to expire
+     */
+    public Credential getIfValid(String userKey)
+    {
+        Credential credential = cache.getIfPresent(userKey);
+        return credential != null && !isExpiring(credential) ? credential : null;
+    }
+
+    /**
+     * @param userKey
+     * @return The cached credential of the user, whether or not its access token is about to expire
+     */
+    public Credential getIfPresent(String userKey)
+    {
+        return cache.getIfPresent(userKey);
+    }
+
+    public void put(String userKey, Credential credential)
+    {
+        cache.put(userKey, credential);
+    }
+
+    public void invalidate(String userKey)
+    {
+        cache.invalidate(userKey);
+    }
+
+    /**
+     * Keys of the cached credentials that expire within the given number of seconds and that can be refreshed. Listing
+     * the keys does not count as an access to the entries.
+     *
+     * @param seconds
+     * @return
+     */
+    public List<String> getUserKeysExpiringWithin(int seconds)
+    {
+        return cache
+            .asMap()
+            .entrySet()
+            .stream()
+            .filter(entry -> entry.getValue().getRefreshToken() != null)
+            .filter(entry -> {
+                Long expiresInSeconds = entry.getValue().getExpiresInSeconds();
+                return expiresInSeconds != null && expiresInSeconds <= seconds;
+            })
+            .map(entry -> entry.getKey())
+            .collect(Collectors.toList());
+    }
+
+    /**
+     * @param tenantDomain
+     * @param userName
+     * @return The key of the credential of the user in the tenant
+     */
+    public static String getUserKey(String tenantDomain, String userName)
+    {
+        return tenantDomain + USER_KEY_SEPARATOR + userName;
+    }
+
+    /**
+     * @param userKey
+     * @return The user name the key was built from
+     */
+    public static String getUserName(String userKey)
+    {
+        return userKey.substring(userKey.indexOf(USER_KEY_SEPARATOR) + 1);
+    }
+
+    /**
+     * Does the access token expire within the expiry skew (or is its expiry unknown)?
+     *
+     * @param credential
+     * @return
+     */
+    public boolean isExpiring(Credential credential)
+    {
+        Long expiresInSeconds = credential.getExpiresInSeconds();
+        return expiresInSeconds == null || expiresInSeconds <= expirySkewSeconds;
+    }
+}
@@ -0,0 +1,312 @@
+/*
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software.
+ * -
+ * If the software was purchased under a paid Alfresco license, the terms of
+ * the paid license agreement will prevail.  Otherwise, the software is
+ * provided under the following open source license terms:
+ * -
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * -
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * -
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.alfresco.integrations.google.docs.drive;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.google.api.client.googleapis.batch.BatchRequest;
+import com.google.api.client.googleapis.batch.json.JsonBatchCallback;
+import com.google.api.client.googleapis.json.GoogleJsonError;
+import com.google.api.client.googleapis.json.GoogleJsonResponseException;
+import com.google.api.client.http.HttpHeaders;
+import com.google.api.services.drive.Drive;
+import com.google.api.services.drive.DriveRequest;
+
+/**
+ * Sends several Drive requests in as few HTTP round trips as possible, using the Drive batch endpoint. Google accepts
+ * up to {@link #MAX_BATCH_SIZE} requests per batch; larger sets are split.
+ *
+ * The requests of a batch may be executed by Google in any order. A failed request does not fail the batch: every
+ * request gets its own {@link Result}, in the order the requests were added. Requests rejected because of rate limits
+ * are sent again, in a new batch, as the {@link DriveRetryPolicy} allows.
+ */
+public class DriveBatch
+{
+    private static final Log log = LogFactory.getLog(DriveBatch.class);
+
+    public static final int MAX_BATCH_SIZE = 100;
+
+    private static final String OPERATION = "batch";
+
+    private final Drive                 drive;
+    private final DriveRetryPolicy      retryPolicy;
+    private final List<DriveRequest<?>> requests = new ArrayList<>();
+
+    public DriveBatch(Drive drive, DriveRetryPolicy retryPolicy)
+    {
+        this.drive = drive;
+        this.retryPolicy = retryPolicy;
+    }
+
+    public DriveBatch add(DriveRequest<?> request)
+    {
+        requests.add(request);
+        return this;
+    }
+
+    public int size()
+    {
+        return requests.size();
+    }
+
+    /**
+     * Execute the queued requests.
+     *
+     * @return One result per request, in the order the requests were added
+     * @throws IOException if a batch could not be sent at all
+     */
+    public List<Result> execute() throws IOException
+    {
+        final Result[] results = new Result[requests.size()];
+        final long start = System.currentTimeMillis();
+
+        List<Integer> pending = new ArrayList<>();
+        for (int i = 0; i < requests.size(); i++)
+        {
+            pending.add(i);
+        }
+
+        for (int attempt = 1; !pending.isEmpty(); attempt++)
+        {
+            execute(pending, results);
+
+            // Requests may be processed in any order, so only the ones that were rejected outright are sent again
+            final List<Integer> rejected = new ArrayList<>();
+            for (Integer i : pending)
+            {
+                if (!results[i].isSuccess() && retryPolicy != null &&
+                    retryPolicy.isRetryable(results[i].getStatusCode(), results[i].getReason(), false))
+                {
+                    rejected.add(i);
+                }
+            }
+            if (rejected.isEmpty() || !retryPolicy.awaitRetry(OPERATION, attempt, start, null))
+            {
+                break;
+            }
+            pending = rejected;
+        }
+
+        return Arrays.asList(results);
+    }
+
+    private void execute(List<Integer> indexes, Result[] results) throws IOException
+    {
+        // No need for a multipart request for a single call
+        if (indexes.size() == 1)
+        {
+            acquire(1);
+            results[indexes.get(0)] = executeSingle(requests.get(indexes.get(0)));
+            return;
+        }
+
+        for (int start = 0; start < indexes.size(); start += MAX_BATCH_SIZE)
+        {
+            final int end = Math.min(start + MAX_BATCH_SIZE, indexes.size());
+            acquire(end - start);
+            boolean recorded = false;
+            try
+            {
+                final BatchRequest batch = drive.batch();
+                for (Integer i : indexes.subList(start, end))
+                {
+                    queue(batch, requests.get(i), i, results);
+                }
+
+                log.debug("Executing Drive batch of " + batch.size() + " requests");
+                final long batchStart = System.currentTimeMillis();
+                try
+                {
+                    batch.execute();
+                    recorded = true;
+                    record(null, batchStart);
+                }
+                catch (IOException e)
+                {
+                    recorded = true;
+                    record(e, batchStart);
+                    throw e;
+                }
+            }
+            finally
+            {
+                if (!recorded)
+                {
+                    release();
+                }
+            }
+        }
+    }
+
+    // Every request of a batch counts against the Drive quotas; the circuit breaker sees the batch as one call
+    private void acquire(int permits) throws IOException
+    {
+        if (retryPolicy != null)
+        {
+            retryPolicy.acquire(permits);
+        }
+    }
+
+    private void record(IOException error, long start)
+    {
+        if (retryPolicy != null)
+        {
+            retryPolicy.record(error, start);
+        }
+    }
+
+    private void release()
+    {
+        if (retryPolicy != null)
+        {
+            retryPolicy.release();
+        }
+    }
+
+    private Result executeSingle(DriveRequest<?> request) throws IOException
+    {
+        final long start = System.currentTimeMillis();
+        boolean recorded = false;
+        try
+        {
+            final Result result = new Result(request.execute());
+            recorded = true;
+            record(null, start);
+            return result;
+        }
+        catch (IOException e)
+        {
+            recorded = true;
+            record(e, start);
+            if (!(e instanceof GoogleJsonResponseException))
+            {
+                throw e;
+            }
+            final GoogleJsonResponseException jsonException = (GoogleJsonResponseException) e;
+            return new Result(jsonException.getStatusCode(),
+                jsonException.getDetails() != null ? jsonException.getDetails().getMessage() :
+                jsonException.getMessage(), DriveRetryPolicy.getReason(jsonException.getDetails()));
+        }
+        finally
+        {
+            if (!recorded)
+            {
+                release();
+            }
+        }
+    }
+
+    private static <T> void queue(BatchRequest batch, DriveRequest<T> request, final int index,
+        final Result[] results) throws IOException
+    {
+        request.queue(batch, new JsonBatchCallback<T>()
+        {
+            @Override
+            public void onSuccess(T response, HttpHeaders responseHeaders)
+            {
+                results[index] = new Result(response);
+            }
+
+            @Override
+            public void onFailure(GoogleJsonError error, HttpHeaders responseHeaders)
+            {
+                results[index] = new Result(error.getCode(), error.getMessage(),
+                    DriveRetryPolicy.getReason(error));
+            }
+        });
+    }
+
+    /**
+     * The outcome of one request of a batch.
+     */
+    public static class Result
+    {
+        private final boolean success;
+        private final Object  response;
+        private final int     statusCode;
+        private final String  message;
+        private final String  reason;
+
+        Result(Object response)
+        {
+            this.success = true;
+            this.response = response;
+            this.statusCode = -1;
+            this.message = null;
+            this.reason = null;
+        }
+
+        Result(int statusCode, String message, String reason)
+        {
+            this.success = false;
+            this.response = null;
+            this.statusCode = statusCode;
+            this.message = message;
+            this.reason = reason;
+        }
+
+        public boolean isSuccess()
+        {
+            return success;
+        }
+
+        /**
+         * @return The parsed response of a successful request (null for requests without a response body)
+         */
+        public Object getResponse()
+        {
+            return response;
+        }
+
+        /**
+         * @return The HTTP status code of a failed request
+         */
+        public int getStatusCode()
+        {
+            return statusCode;
+        }
+
+        /**
+         * @return The Google error message of a failed request
+         */
+        public String getMessage()
+        {
+            return message;
+        }
+
+        /**
+         * @return The reason of the Google error of a failed request (e.g. userRateLimitExceeded), if any
+         */
+        public String getReason()
+        {
+            return reason;
+        }
+    }
+}
@@ -0,0 +1,303 @@
+/*
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software.
+ * -
+ * If the software was purchased under a paid Alfresco license, the terms of
+ * the paid license agreement will prevail.  Otherwise, the software is
+ * provided under the following open source license terms:
+ * -
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * -
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * -
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.alfresco.integrations.google.docs.drive;
+
+import java.util.Arrays;
+
+import org.alfresco.integrations.google.docs.exceptions.GoogleDocsUnavailableException;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Circuit breaker around the Google Drive and OAuth2 endpoints, so that repository threads fail fast instead of
+ * waiting on timeouts while Google is degraded.
+ *
+ * <ul>
+ * <li>CLOSED: calls go through. The outcome and latency of the last windowSize calls are recorded; once at least
+ * minimumCalls have been recorded and the failure rate reaches failureRateThreshold percent the breaker opens. Server
+ * errors, network errors and calls slower than slowCallThresholdMillis count as failures. Transfers of content (media
+ * downloads and exports, upload and download chunks) take as long as the content is large, so they are only failures
+ * if they fail.</li>
+ * <li>OPEN: calls are rejected with a {@link GoogleDocsUnavailableException} until openDurationMillis has elapsed.</li>
+ * <li>HALF_OPEN: up to halfOpenCalls probe calls go through. The breaker closes if they all succeed and opens again as
+ * soon as one fails, or if they have not all succeeded within halfOpenTimeoutMillis.</li>
+ * </ul>
+ *
+ * Every permitted call must be either recorded or released, so its probe slot is not lost while half open.
+ */
+public class DriveCircuitBreaker
+{
+    private static final Log log = LogFactory.getLog(DriveCircuitBreaker.class);
+
+    public enum State
+    {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private int  windowSize              = 100;
+    private int  minimumCalls            = 20;
+    private int  failureRateThreshold    = 50;
+    private long slowCallThresholdMillis = 10000;
+    private long openDurationMillis      = 30000;
+    private int  halfOpenCalls           = 3;
+    private long halfOpenTimeoutMillis   = 60000;
+
+    private State state = State.CLOSED;
+    private long  openedAt;
+    private long  halfOpenedAt;
+    private int   halfOpenPermitted;
+    private int   halfOpenSucceeded;
+
+    // Ring buffer of the outcomes and latencies of the last calls
+    private boolean[] failures;
+    private long[]    latencies;
+    private int       next;
+    private int       recorded;
+    private int       failed;
+
+    private long rejectedCalls;
+
+    public void setWindowSize(int windowSize)
+    {
+        this.windowSize = windowSize;
+    }
+
+    public void setMinimumCalls(int minimumCalls)
+    {
+        this.minimumCalls = minimumCalls;
+    }
+
+    public void setFailureRateThreshold(int failureRateThreshold)
+    {
+        this.failureRateThreshold = failureRateThreshold;
+    }
+
+    public void setSlowCallThresholdMillis(long slowCallThresholdMillis)
+    {
+        this.slowCallThresholdMillis = slowCallThresholdMillis;
+    }
+
+    public void setOpenDurationMillis(long openDurationMillis)
+    {
+        this.openDurationMillis = openDurationMillis;
+    }
+
+    public void setHalfOpenCalls(int halfOpenCalls)
+    {
+        this.halfOpenCalls = halfOpenCalls;
+    }
+
+    public void setHalfOpenTimeoutMillis(long halfOpenTimeoutMillis)
+    {
+        this.halfOpenTimeoutMillis = halfOpenTimeoutMillis;
+    }
+
+    public synchronized void init()
+    {
+        failures = new boolean[windowSize];
+        latencies = new long[windowSize];
+        next = 0;
+        recorded = 0;
+        failed = 0;
+    }
+
+    /**
+     * Ask whether a call to Google may be made.
+     *
+     * @throws GoogleDocsUnavailableException if the breaker is open (or all the half open probes are taken)
+     */
+    public synchronized void acquirePermission() throws GoogleDocsUnavailableException
+    {
+        if (state == State.OPEN)
+        {
+            if (System.currentTimeMillis() - openedAt < openDurationMillis)
+            {
+                rejectedCalls++;
+                throw new GoogleDocsUnavailableException(
+                    "Google Drive is currently unavailable. Please try again later.");
+            }
+            transitionTo(State.HALF_OPEN);
+        }
+
+        // Probes that never completed (e.g. stuck on a slow call) must not keep the breaker half open
+        if (state == State.HALF_OPEN && System.currentTimeMillis() - halfOpenedAt >= halfOpenTimeoutMillis)
+        {
+            transitionTo(State.OPEN);
+            rejectedCalls++;
+            throw new GoogleDocsUnavailableException(
+                "Google Drive is currently unavailable. Please try again later.");
+        }
+
+        if (state == State.HALF_OPEN)
+        {
+            if (halfOpenPermitted >= halfOpenCalls)
+            {
+                rejectedCalls++;
+                throw new GoogleDocsUnavailableException(
+                    "Google Drive is recovering. Please try again later.");
+            }
+            halfOpenPermitted++;
+        }
+    }
+
+    /**
+     * Give back the permission of a call that was not made, or that failed before Google answered for reasons that do
+     * not tell anything about Google (e.g. a local error).
+     */
+    public synchronized void release()
+    {
+        if (state == State.HALF_OPEN && halfOpenPermitted > halfOpenSucceeded)
+        {
+            halfOpenPermitted--;
+        }
+    }
+
+    /**
+     * Record the outcome of a permitted call, to which the slow call threshold applies.
+     *
+     * @param failure       did the call fail with a server or network error?
+     * @param latencyMillis how long the call took
+     */
+    public synchronized void record(boolean failure, long latencyMillis)
+    {
+        record(failure, latencyMillis, true);
+    }
+
+    /**
+     * Record the outcome of a permitted call.
+     *
+     * @param failure       did the call fail with a server or network error?
+     * @param latencyMillis how long the call took
+     * @param timed         does the slow call threshold apply to the call? It does not to transfers of content
+     */
+    public synchronized void record(boolean failure, long latencyMillis, boolean timed)
+    {
+        final boolean failedCall = failure || timed && latencyMillis >= slowCallThresholdMillis;
+
+        // The window always reflects the recent calls, whatever the state
+        if (recorded == windowSize && failures[next])
+        {
+            failed--;
+        }
+        failures[next] = failedCall;
+        latencies[next] = latencyMillis;
+        if (failedCall)
+        {
+            failed++;
+        }
+        next = (next + 1) % windowSize;
+        recorded = Math.min(recorded + 1, windowSize);
+
+        switch (state)
+        {
+        case HALF_OPEN:
+            if (failedCall)
+            {
+                transitionTo(State.OPEN);
+            }
+            else if (++halfOpenSucceeded >= halfOpenCalls)
+            {
+                transitionTo(State.CLOSED);
+            }
+            break;
+        case CLOSED:
+            if (recorded >= minimumCalls && getFailureRate() >= failureRateThreshold)
+            {
+                transitionTo(State.OPEN);
+            }
+            break;
+        default:
+            // Calls permitted before the breaker opened
+            break;
+        }
+    }
+
+    private void transitionTo(State newState)
+    {
+        log.info("Google Drive circuit breaker " + state + " -> " + newState + ". " + this);
+
+        state = newState;
+        halfOpenPermitted = 0;
+        halfOpenSucceeded = 0;
+        if (newState == State.OPEN)
+        {
+            openedAt = System.currentTimeMillis();
+        }
+        else if (newState == State.HALF_OPEN)
+        {
+            halfOpenedAt = System.currentTimeMillis();
+        }
+        else if (newState == State.CLOSED)
+        {
+            // Start afresh: the failures that opened the breaker are history
+            init();
+        }
+    }
+
+    public synchronized State getState()
+    {
+        return state;
+    }
+
+    /**
+     * @return Percentage of failed calls in the window
+     */
+    public synchronized int getFailureRate()
+    {
+        return recorded == 0 ? 0 : failed * 100 / recorded;
+    }
+
+    /**
+     * @param percentile e.g. 95
+     * @return The latency percentile of the calls in the window, in milliseconds
+     */
+    public synchronized long getLatencyPercentile(double percentile)
+    {
+        if (recorded == 0)
+        {
+            return 0;
+        }
+        final long[] sorted = Arrays.copyOf(latencies, recorded);
+        Arrays.sort(sorted);
+        final int index = (int) Math.ceil(percentile / 100 * recorded) - 1;
+        return sorted[Math.max(0, Math.min(index, recorded - 1))];
+    }
+
+    /**
+     * @return Number of calls rejected without calling Google
+     */
+    public synchronized long getRejectedCalls()
+    {
+        return rejectedCalls;
+    }
+
+    @Override
+    public synchronized String toString()
+    {
+        return "DriveCircuitBreaker[state=" + state + ", failureRate=" + getFailureRate()
+               + "%, calls=" + recorded + ", p50=" + getLatencyPercentile(50) + "ms, p95="
+               + getLatencyPercentile(95) + "ms, p99=" + getLatencyPercentile(99)
+               + "ms, rejected=" + rejectedCalls + "]";
+    }
+}
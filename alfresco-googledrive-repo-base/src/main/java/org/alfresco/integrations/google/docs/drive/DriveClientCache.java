@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software.
+ * -
+ * If the software was purchased under a paid Alfresco license, the terms of
+ * the paid license agreement will prevail.  Otherwise, the software is
+ * provided under the following open source license terms:
+ * -
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * -
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * -
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.alfresco.integrations.google.docs.drive;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.google.api.client.auth.oauth2.Credential;
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpRequestInitializer;
+import com.google.api.services.drive.Drive;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Keeps one {@link Drive} client per user (and tenant) so the client and its initializer chain are not rebuilt for
+ * every Drive call made while serving a request.
+ *
+ * The cached client does not hold on to a fixed {@link Credential}; it initializes each request with the latest
+ * credential registered for the user, so a refreshed token replaces the credential of the cached entry in place.
+ */
+public class DriveClientCache
+{
+    private static final Log log = LogFactory.getLog(DriveClientCache.class);
+
+    private int maxItems          = 1000;
+    private int timeToLiveSeconds = 1800;
+
+    private Cache<String, CachedDrive> cache;
+
+    public void setMaxItems(int maxItems)
+    {
+        this.maxItems = maxItems;
+    }
+
+    public void setTimeToLiveSeconds(int timeToLiveSeconds)
+    {
+        this.timeToLiveSeconds = timeToLiveSeconds;
+    }
+
+    public void init()
+    {
+        cache = CacheBuilder
+            .newBuilder()
+            .maximumSize(maxItems)
+            .expireAfterWrite(timeToLiveSeconds, TimeUnit.SECONDS)
+            .build();
+    }
+
+    /**
+     * Get the Drive client of the user, building it with the factory if it is not cached yet.
+     *
+     * @param userKey    user (and tenant) the client belongs to
+     * @param credential the credential to use for the next requests made by the client
+     * @param factory    builds a new Drive client from the request initializer of the cache entry
+     * @return
+     */
+    public Drive get(String userKey, Credential credential,
+        Function<HttpRequestInitializer, Drive> factory)
+    {
+        CachedDrive entry = cache.asMap().computeIfAbsent(userKey, key -> {
+            log.debug("Initiating Google Drive Connection for " + key);
+            return new CachedDrive(credential, factory);
+        });
+        entry.setCredential(credential);
+        return entry.getDrive();
+    }
+
+    /**
+     * Replace the credential of the cached client of the user (if any) i.e. after the access token has been refreshed.
+     *
+     * @param userKey
+     * @param credential
+     */
+    public void updateCredential(String userKey, Credential credential)
+    {
+        CachedDrive entry = cache.getIfPresent(userKey);
+        if (entry != null)
+        {
+            entry.setCredential(credential);
+        }
+    }
+
+    public void invalidate(String userKey)
+    {
+        cache.invalidate(userKey);
+    }
+
+    /**
+     * A Drive client whose requests are initialized with the most recently provided credential.
+     */
+    private static class CachedDrive implements HttpRequestInitializer
+    {
+        private volatile Credential credential;
+        private final    Drive      drive;
+
+        CachedDrive(Credential credential, Function<HttpRequestInitializer, Drive> factory)
+        {
+            this.credential = credential;
+            this.drive = factory.apply(this);
+        }
+
+        void setCredential(Credential credential)
+        {
+            if (credential != null && credential != this.credential)
+            {
+                this.credential = credential;
+            }
+        }
+
+        Drive getDrive()
+        {
+            return drive;
+        }
+
+        @Override
+        public void initialize(HttpRequest request) throws IOException
+        {
+            credential.initialize(request);
+        }
+    }
+}
@@ -0,0 +1,339 @@
+/*
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software.
+ * -
+ * If the software was purchased under a paid Alfresco license, the terms of
+ * the paid license agreement will prevail.  Otherwise, the software is
+ * provided under the following open source license terms:
+ * -
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * -
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * -
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.alfresco.integrations.google.docs.drive;
+
+import java.io.BufferedOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import org.alfresco.util.TempFileProvider;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.google.api.client.googleapis.json.GoogleJsonResponseException;
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpResponse;
+import com.google.api.services.drive.Drive;
+import com.google.api.services.drive.model.File;
+import com.google.common.io.ByteStreams;
+
+/**
+ * Downloads the content of (non Google Docs) files from Google Drive.
+ *
+ * Files smaller than rangedThresholdBytes are streamed in a single request. Larger files are fetched in ranges of
+ * chunkSizeBytes and spooled to a temporary file; when the connection fails part way, the download continues from the
+ * last byte received instead of starting over.
+ *
+ * When the revision is known the content of that revision is downloaded, so the ranges of a file changed in Drive
+ * during the download are never mixed. Otherwise the ETag of every range is compared with the first one, and the
+ * download starts over (a few times at most) when the content changed.
+ */
+public class DriveDownloader
+{
+    private static final Log log = LogFactory.getLog(DriveDownloader.class);
+
+    private static final String OPERATION_RANGE = "files.download";
+
+    private static final int SC_PARTIAL_CONTENT = 206;
+    private static final int MAX_RESTARTS       = 3;
+    private static final int BUFFER_SIZE        = 64 * 1024;
+
+    private DriveRetryPolicy retryPolicy;
+
+    private long rangedThresholdBytes = 8 * 1024 * 1024;
+    private int  chunkSizeBytes       = 8 * 1024 * 1024;
+
+    public void setRetryPolicy(DriveRetryPolicy retryPolicy)
+    {
+        this.retryPolicy = retryPolicy;
+    }
+
+    public void setRangedThresholdBytes(long rangedThresholdBytes)
+    {
+        this.rangedThresholdBytes = rangedThresholdBytes;
+    }
+
+    public void setChunkSizeBytes(int chunkSizeBytes)
+    {
+        this.chunkSizeBytes = chunkSizeBytes;
+    }
+
+    /**
+     * Download the content of a file.
+     *
+     * @param drive      the Drive client of the user
+     * @param file       the file, with its size
+     * @param revisionId the revision to download, or null for the current content
+     * @return The content; the caller must close it (which removes the spooled copy, if any)
+     * @throws IOException the error of the last attempt
+     */
+    public InputStream download(Drive drive, File file, String revisionId) throws IOException
+    {
+        final Long size = file.getSize();
+        if (size == null || size < rangedThresholdBytes)
+        {
+            return retryPolicy.executeMedia(revisionId == null ? drive.files().get(file.getId()) :
+                drive.revisions().get(file.getId(), revisionId));
+        }
+
+        final java.io.File spool = TempFileProvider.createTempFile("googledocs-download-", ".bin");
+        try
+        {
+            final Transfer transfer = new Transfer(drive, file.getId(), revisionId, size, spool);
+            try
+            {
+                while (transfer.position < transfer.length)
+                {
+                    retryPolicy.executeTransfer(OPERATION_RANGE, transfer::fetchNextChunk);
+                }
+            }
+            finally
+            {
+                transfer.out.close();
+            }
+            log.debug("Downloaded " + transfer.position + " bytes of " + file.getId() + " in ranges");
+
+            return new SpooledInputStream(spool);
+        }
+        catch (IOException | RuntimeException e)
+        {
+            spool.delete();
+            throw e;
+        }
+    }
+
+    /**
+     * Save the content returned by {@link #download} to the file. A spooled download is moved there, not copied.
+     *
+     * @param content the content; it is closed
+     * @param target  the file to save the content to
+     * @throws IOException if the content could not be saved
+     */
+    public static void saveTo(InputStream content, java.io.File target) throws IOException
+    {
+        try (InputStream in = content)
+        {
+            if (in instanceof SpooledInputStream)
+            {
+                ((SpooledInputStream) in).moveTo(target);
+            }
+            else
+            {
+                Files.copy(in, target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+    }
+
+    /**
+     * A ranged download in progress: the position is the number of bytes received (and spooled) so far.
+     */
+    private class Transfer
+    {
+        private final Drive        drive;
+        private final String       fileId;
+        private final String       revisionId;
+        private final java.io.File spool;
+
+        private OutputStream out;
+        private long         length;
+        private long         position;
+        private boolean      resumed;
+        private String       etag;
+        private int          restarts;
+
+        Transfer(Drive drive, String fileId, String revisionId, long length, java.io.File spool)
+            throws IOException
+        {
+            this.drive = drive;
+            this.fileId = fileId;
+            this.revisionId = revisionId;
+            this.length = length;
+            this.spool = spool;
+            this.out = new BufferedOutputStream(new FileOutputStream(spool), BUFFER_SIZE);
+        }
+
+        Void fetchNextChunk() throws IOException
+        {
+            if (resumed)
+            {
+                log.debug("Resuming the download of " + fileId + " at byte " + position);
+                resumed = false;
+            }
+
+            final long end = Math.min(position + chunkSizeBytes, length) - 1;
+            final GenericUrl url = new GenericUrl(drive.getBaseUrl() + "files/" + fileId +
+                                                  (revisionId == null ? "" : "/revisions/" + revisionId));
+            url.set("alt", "media");
+
+            final HttpRequest request = drive.getRequestFactory().buildGetRequest(url);
+            request.getHeaders().setRange("bytes=" + position + "-" + end);
+            // The range is an offset into the content as stored, not into a compressed response
+            request.getHeaders().setAcceptEncoding("identity");
+            request.setThrowExceptionOnExecuteError(false);
+
+            try
+            {
+                final HttpResponse response = request.execute();
+                try
+                {
+                    if (!response.isSuccessStatusCode())
+                    {
+                        throw GoogleJsonResponseException.from(drive.getJsonFactory(), response);
+                    }
+                    if (isChanged(response))
+                    {
+                        restart();
+                        return null;
+                    }
+                    receive(response);
+                }
+                finally
+                {
+                    response.disconnect();
+                }
+            }
+            catch (IOException e)
+            {
+                // The bytes received before the failure are kept
+                resumed = true;
+                throw e;
+            }
+            return null;
+        }
+
+        /**
+         * @return true if the content is not the one the earlier ranges were taken from
+         */
+        private boolean isChanged(HttpResponse response)
+        {
+            final String responseEtag = response.getHeaders().getETag();
+            if (etag == null || position == 0)
+            {
+                etag = responseEtag;
+                return false;
+            }
+            return responseEtag != null && !responseEtag.equals(etag);
+        }
+
+        /**
+         * Discard the ranges received so far; the next chunk is the first one of the new content
+         */
+        private void restart() throws IOException
+        {
+            if (++restarts > MAX_RESTARTS)
+            {
+                throw new IOException("The content of " + fileId + " kept changing during the download");
+            }
+            log.debug("The content of " + fileId + " changed during the download, starting over");
+            out.close();
+            out = new BufferedOutputStream(new FileOutputStream(spool), BUFFER_SIZE);
+            position = 0;
+            etag = null;
+        }
+
+        private void receive(HttpResponse response) throws IOException
+        {
+            // The size of the content actually served (bytes start-end/total) wins over the size of the file
+            final String contentRange = response.getHeaders().getContentRange();
+            if (contentRange != null && contentRange.lastIndexOf('/') > 0)
+            {
+                try
+                {
+                    length = Long.parseLong(contentRange.substring(contentRange.lastIndexOf('/') + 1).trim());
+                }
+                catch (NumberFormatException e)
+                {
+                    log.debug("Ignoring the Content-Range " + contentRange + " of " + fileId);
+                }
+            }
+
+            final long start = position;
+            try (InputStream in = response.getContent())
+            {
+                if (response.getStatusCode() != SC_PARTIAL_CONTENT)
+                {
+                    // The range was ignored and the whole content sent
+                    ByteStreams.skipFully(in, position);
+                }
+
+                final byte[] buffer = new byte[BUFFER_SIZE];
+                int read;
+                while ((read = in.read(buffer)) != -1)
+                {
+                    out.write(buffer, 0, read);
+                    position += read;
+                }
+            }
+            if (position == start && position < length)
+            {
+                throw new IOException("No content received for " + fileId + " at byte " + position);
+            }
+        }
+    }
+
+    /**
+     * The spooled content; the temporary file is removed when the stream is closed, unless it was moved.
+     */
+    private static class SpooledInputStream extends FilterInputStream
+    {
+        private final java.io.File spool;
+
+        private boolean moved;
+
+        SpooledInputStream(java.io.File spool) throws IOException
+        {
+            super(new FileInputStream(spool));
+            this.spool = spool;
+        }
+
+        void moveTo(java.io.File target) throws IOException
+        {
+            Files.move(spool.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            moved = true;
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            try
+            {
+                super.close();
+            }
+            finally
+            {
+                if (!moved)
+                {
+                    spool.delete();
+                }
+            }
+        }
+    }
+}
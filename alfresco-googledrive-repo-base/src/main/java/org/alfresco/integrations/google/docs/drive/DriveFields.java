@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software.
+ * -
+ * If the software was purchased under a paid Alfresco license, the terms of
+ * the paid license agreement will prevail.  Otherwise, the software is
+ * provided under the following open source license terms:
+ * -
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * -
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * -
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.alfresco.integrations.google.docs.drive;
+
+/**
+ * The partial response field masks requested from Google Drive, one per kind of call. Each mask holds only the fields
+ * read from the response by the Google Docs service and the webscripts; add the field here before reading a new one.
+ */
+public interface DriveFields
+{
+    // files.get / files.create: the Drive file the node is decorated with (and the size of binary files, for downloads)
+    String FILE = "id,name,mimeType,parents,webViewLink,description,size";
+
+    // files.list of the copies of a node kept in Drive, with the checksum of their content (binary files only) and the
+    // app properties they were tagged with
+    String RETAINED_FILE_LIST = "files(" + FILE + ",md5Checksum,appProperties)";
+
+    // files.update of the app properties of a copy kept in Drive: nothing is read from the response
+    String RETAINED_FILE = "id";
+
+    // files.get of the cached working directory: it may have been deleted or trashed in Drive
+    String FOLDER = "id,trashed";
+
+    // files.list of the working folders (the description tells our folders apart)
+    String FOLDER_LIST = "nextPageToken,files(id,name,description)";
+
+    // revisions.list: latest revision and concurrent editor checks
+    String REVISION_LIST = "revisions(id,modifiedTime,lastModifyingUser/emailAddress)";
+
+    // permissions.list: permissions synchronized back to the node
+    String PERMISSION_LIST = "permissions(role,type,emailAddress)";
+
+    // permissions.create: nothing is read from the response
+    String PERMISSION = "id";
+
+    // about.get: the Drive profile of the user
+    String ABOUT = "user(displayName,emailAddress,permissionId)";
+}
@@ -0,0 +1,245 @@
+/*
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software.
+ * -
+ * If the software was purchased under a paid Alfresco license, the terms of
+ * the paid license agreement will prevail.  Otherwise, the software is
+ * provided under the following open source license terms:
+ * -
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * -
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * -
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.alfresco.integrations.google.docs.drive;
+
+import java.util.Collections;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.google.api.client.googleapis.json.GoogleJsonError;
+import com.google.api.client.googleapis.json.GoogleJsonResponseException;
+import com.google.api.client.http.HttpHeaders;
+import com.google.api.client.http.HttpResponseException;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.RateLimiter;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+/**
+ * Shapes the Drive traffic sent to Google so it stays within the per project and per user quotas, instead of sending
+ * bursts that Google answers with 429s.
+ *
+ * Each Drive request takes a permit from the global bucket, then from the bucket of its user (both token buckets,
+ * refilled at a fixed rate and holding up to one second of permits). The global bucket is tried first so a request it
+ * rejects does not use up the permits of its user. A request waits at most maxWaitMillis for its permits; if they are
+ * not available by then it is rejected with the same 429 (rateLimitExceeded) error Google would have returned.
+ *
+ * Several requests sent at once (a batch) take their permits from each bucket as one block, admitted once the first
+ * permit is available within maxWaitMillis. A token bucket grants such a block straight away and makes the next request
+ * wait for the rest of it, which would have the next single request of the user rejected; so the admitted batch waits
+ * out the rest of its block itself.
+ *
+ * The metrics are exposed through the getters (and JMX).
+ *
+ * A rate of 0 disables the corresponding limit.
+ */
+public class DriveQuotaGovernor
+{
+    private static final Log log = LogFactory.getLog(DriveQuotaGovernor.class);
+
+    private static final int    SC_TOO_MANY_REQUESTS       = 429;
+    private static final String REASON_RATE_LIMIT_EXCEEDED = "rateLimitExceeded";
+
+    private double globalPermitsPerSecond = 100;
+    private double userPermitsPerSecond   = 10;
+    private long   maxWaitMillis          = 2000;
+    private int    maxUsers               = 1000;
+
+    private RateLimiter                globalLimiter;
+    private Cache<String, RateLimiter> userLimiters;
+
+    // Metrics
+    private final AtomicLong grantedPermits   = new AtomicLong();
+    private final AtomicLong delayedRequests  = new AtomicLong();
+    private final AtomicLong rejectedRequests = new AtomicLong();
+    private final AtomicLong waitedMillis     = new AtomicLong();
+
+    public void setGlobalPermitsPerSecond(double globalPermitsPerSecond)
+    {
+        this.globalPermitsPerSecond = globalPermitsPerSecond;
+    }
+
+    public void setUserPermitsPerSecond(double userPermitsPerSecond)
+    {
+        this.userPermitsPerSecond = userPermitsPerSecond;
+    }
+
+    public void setMaxWaitMillis(long maxWaitMillis)
+    {
+        this.maxWaitMillis = maxWaitMillis;
+    }
+
+    public void setMaxUsers(int maxUsers)
+    {
+        this.maxUsers = maxUsers;
+    }
+
+    public void init()
+    {
+        globalLimiter = globalPermitsPerSecond > 0 ? RateLimiter.create(globalPermitsPerSecond) : null;
+        userLimiters = CacheBuilder
+            .newBuilder()
+            .maximumSize(maxUsers)
+            .expireAfterAccess(10, TimeUnit.MINUTES)
+            .build();
+    }
+
+    /**
+     * Take the permits for Drive requests of the user, waiting for them if need be.
+     *
+     * @param userKey the user the requests are sent for
+     * @param permits the number of Drive requests
+     * @throws GoogleJsonResponseException (429) if the first permit could not be obtained within maxWaitMillis
+     */
+    public void acquire(String userKey, int permits) throws GoogleJsonResponseException
+    {
+        final long start = System.nanoTime();
+
+        if (globalLimiter != null && !globalLimiter.tryAcquire(permits, maxWaitMillis, TimeUnit.MILLISECONDS))
+        {
+            throw reject(userKey, "global");
+        }
+
+        final RateLimiter userLimiter = getUserLimiter(userKey);
+        final long remaining = maxWaitMillis - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        if (userLimiter != null &&
+            !userLimiter.tryAcquire(permits, Math.max(remaining, 0), TimeUnit.MILLISECONDS))
+        {
+            throw reject(userKey, "per user");
+        }
+
+        // Wait out the rest of the block of an admitted batch, so the next request does not pay for it
+        if (permits > 1)
+        {
+            Uninterruptibles.sleepUninterruptibly(Math.max(getBlockMillis(globalLimiter, permits),
+                getBlockMillis(userLimiter, permits)), TimeUnit.MILLISECONDS);
+        }
+
+        grantedPermits.addAndGet(permits);
+        final long waited = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        if (waited > 0)
+        {
+            delayedRequests.incrementAndGet();
+            waitedMillis.addAndGet(waited);
+        }
+    }
+
+    /**
+     * @return How long the bucket takes to refill the permits of a block but the first, which it grants straight away
+     */
+    private static long getBlockMillis(RateLimiter limiter, int permits)
+    {
+        return limiter == null ? 0 : (long) ((permits - 1) * 1000 / limiter.getRate());
+    }
+
+    private RateLimiter getUserLimiter(String userKey)
+    {
+        if (userPermitsPerSecond <= 0)
+        {
+            return null;
+        }
+        try
+        {
+            return userLimiters.get(userKey, () -> RateLimiter.create(userPermitsPerSecond));
+        }
+        catch (ExecutionException e)
+        {
+            // Creating a RateLimiter does not fail
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private GoogleJsonResponseException reject(String userKey, String limit)
+    {
+        rejectedRequests.incrementAndGet();
+
+        final String message = "Google Drive " + limit + " request rate exceeded";
+        log.info(message + " for " + userKey + "; request rejected. " + this);
+
+        final GoogleJsonError.ErrorInfo errorInfo = new GoogleJsonError.ErrorInfo();
+        errorInfo.setReason(REASON_RATE_LIMIT_EXCEEDED);
+        errorInfo.setMessage(message);
+
+        final GoogleJsonError error = new GoogleJsonError();
+        error.setCode(SC_TOO_MANY_REQUESTS);
+        error.setMessage(message);
+        error.setErrors(Collections.singletonList(errorInfo));
+
+        return new GoogleJsonResponseException(
+            new HttpResponseException.Builder(SC_TOO_MANY_REQUESTS, "Too Many Requests",
+                new HttpHeaders()).setMessage(message), error);
+    }
+
+    /**
+     * @return Number of permits (Drive requests) granted
+     */
+    public long getGrantedPermits()
+    {
+        return grantedPermits.get();
+    }
+
+    /**
+     * @return Number of requests that had to wait for their permits
+     */
+    public long getDelayedRequests()
+    {
+        return delayedRequests.get();
+    }
+
+    /**
+     * @return Number of requests rejected because their permits were not available in time
+     */
+    public long getRejectedRequests()
+    {
+        return rejectedRequests.get();
+    }
+
+    /**
+     * @return Total time requests spent waiting for their permits
+     */
+    public long getWaitedMillis()
+    {
+        return waitedMillis.get();
+    }
+
+    /**
+     * @return Number of users with a bucket
+     */
+    public long getActiveUsers()
+    {
+        return userLimiters.size();
+    }
+
+    @Override
+    public String toString()
+    {
+        return "DriveQuotaGovernor[granted=" + getGrantedPermits() + ", delayed=" + getDelayedRequests()
+               + ", rejected=" + getRejectedRequests() + ", waitedMillis=" + getWaitedMillis()
+               + ", activeUsers=" + getActiveUsers() + "]";
+    }
+}
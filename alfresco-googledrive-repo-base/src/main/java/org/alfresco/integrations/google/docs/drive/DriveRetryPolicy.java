@@ -0,0 +1,459 @@
+/*
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software.
+ * -
+ * If the software was purchased under a paid Alfresco license, the terms of
+ * the paid license agreement will prevail.  Otherwise, the software is
+ * provided under the following open source license terms:
+ * -
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * -
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * -
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.alfresco.integrations.google.docs.drive;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.alfresco.integrations.google.docs.exceptions.GoogleDocsUnavailableException;
+import org.alfresco.repo.security.authentication.AuthenticationUtil;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.google.api.client.googleapis.json.GoogleJsonError;
+import com.google.api.client.googleapis.json.GoogleJsonResponseException;
+import com.google.api.client.http.HttpHeaders;
+import com.google.api.client.http.HttpMethods;
+import com.google.api.client.http.HttpResponseException;
+import com.google.api.services.drive.DriveRequest;
+
+/**
+ * The retry policy applied to every Google Drive and OAuth2 call.
+ *
+ * Rate limit errors (429 and 403 userRateLimitExceeded / rateLimitExceeded) are always retried: Google rejected the
+ * request without processing it. Server errors (5xx) and network errors are only retried for idempotent calls, as the
+ * request may have been processed. Everything else is fatal.
+ *
+ * Retries are delayed with exponential backoff and full jitter, or by the Retry-After sent by Google if that is longer.
+ * Each call is bounded both by a number of attempts and by a time budget (which can be set per operation), so a slow
+ * call never holds the calling thread for longer than the budget.
+ *
+ * Every attempt of a call (Drive requests, but also download and upload chunks and OAuth2 token requests) first takes
+ * a permit from the {@link DriveQuotaGovernor}, if one is set. A call rejected by the governor is not retried: it
+ * already waited for as long as the governor allows.
+ *
+ * Every attempt of any call also goes through the {@link DriveCircuitBreaker}, if one is set: the attempt is rejected
+ * straight away while the breaker is open, otherwise its outcome and latency are recorded. Transfers of content (media
+ * requests, media uploads and the chunks of resumable transfers) are left out of the slow call rule of the breaker.
+ *
+ * The attempts are sent to Google by the {@link DriveCallRunner}, if one is set (e.g. on a pool of threads), else on
+ * the calling thread. The retries, and the waits between them, stay on the calling thread.
+ */
+public class DriveRetryPolicy
+{
+    private static final Log log = LogFactory.getLog(DriveRetryPolicy.class);
+
+    private static final int SC_TOO_MANY_REQUESTS = 429;
+    private static final int SC_FORBIDDEN         = 403;
+
+    private static final String REASON_USER_RATE_LIMIT_EXCEEDED = "userRateLimitExceeded";
+    private static final String REASON_RATE_LIMIT_EXCEEDED      = "rateLimitExceeded";
+
+    private int  maxAttempts           = 5;
+    private long initialIntervalMillis = 500;
+    private long maxIntervalMillis     = 16000;
+    private long maxElapsedMillis      = 30000;
+
+    private Map<String, Long> maxElapsedMillisByOperation = new HashMap<>();
+
+    private DriveQuotaGovernor  quotaGovernor;
+    private DriveCircuitBreaker circuitBreaker;
+    private DriveCallRunner     callRunner;
+
+    /**
+     * A call to Google
+     *
+     * @param <T> the response type
+     */
+    public interface DriveCall<T>
+    {
+        T execute() throws IOException;
+    }
+
+    /**
+     * Runs an attempt of a call to Google and waits for its outcome
+     */
+    public interface DriveCallRunner
+    {
+        <T> T run(DriveCall<T> call) throws IOException;
+    }
+
+    public void setMaxAttempts(int maxAttempts)
+    {
+        this.maxAttempts = maxAttempts;
+    }
+
+    public void setInitialIntervalMillis(long initialIntervalMillis)
+    {
+        this.initialIntervalMillis = initialIntervalMillis;
+    }
+
+    public void setMaxIntervalMillis(long maxIntervalMillis)
+    {
+        this.maxIntervalMillis = maxIntervalMillis;
+    }
+
+    public void setMaxElapsedMillis(long maxElapsedMillis)
+    {
+        this.maxElapsedMillis = maxElapsedMillis;
+    }
+
+    public void setQuotaGovernor(DriveQuotaGovernor quotaGovernor)
+    {
+        this.quotaGovernor = quotaGovernor;
+    }
+
+    public void setCircuitBreaker(DriveCircuitBreaker circuitBreaker)
+    {
+        this.circuitBreaker = circuitBreaker;
+    }
+
+    public void setCallRunner(DriveCallRunner callRunner)
+    {
+        this.callRunner = callRunner;
+    }
+
+    /**
+     * Time budgets for specific operations (e.g. "files.export"), overriding maxElapsedMillis
+     *
+     * @param maxElapsedMillisByOperation
+     */
+    public void setMaxElapsedMillisByOperation(Map<String, Long> maxElapsedMillisByOperation)
+    {
+        this.maxElapsedMillisByOperation = maxElapsedMillisByOperation;
+    }
+
+    /**
+     * Execute the Drive request with retries. GET and DELETE requests are idempotent; the operation is named after the
+     * request e.g. "files.get".
+     *
+     * @param request
+     * @return the response of the request
+     * @throws IOException the error of the last attempt
+     */
+    public <T> T execute(DriveRequest<T> request) throws IOException
+    {
+        return execute(getOperation(request), isIdempotent(request), 1,
+            request.getMediaHttpUploader() == null, request::execute);
+    }
+
+    /**
+     * Execute the Drive media (download or export) request with retries.
+     *
+     * @param request
+     * @return the content
+     * @throws IOException the error of the last attempt
+     */
+    public InputStream executeMedia(DriveRequest<?> request) throws IOException
+    {
+        // What executeMediaAsInputStream() does; it is only public on the requests that support media
+        request.set("alt", "media");
+        return execute(getOperation(request), true, 1, false, () -> request.executeUnparsed().getContent());
+    }
+
+    /**
+     * Execute the call, retrying it as long as it fails with a retryable error and the attempts and time budget of the
+     * operation allow.
+     *
+     * @param operation  name of the operation, for the logs and the per operation budgets
+     * @param idempotent can the call safely be repeated if Google may already have processed it?
+     * @param call       the call
+     * @return the response of the call
+     * @throws IOException the error of the last attempt
+     */
+    public <T> T execute(String operation, boolean idempotent, DriveCall<T> call)
+        throws IOException
+    {
+        return execute(operation, idempotent, 1, true, call);
+    }
+
+    /**
+     * Execute a transfer of content (e.g. a chunk of a resumable upload or download) with retries. Transfers are
+     * idempotent, and take as long as the content is large so they are left out of the slow call rule.
+     *
+     * @param operation name of the operation, for the logs and the per operation budgets
+     * @param call      the call
+     * @return the response of the call
+     * @throws IOException the error of the last attempt
+     */
+    public <T> T executeTransfer(String operation, DriveCall<T> call) throws IOException
+    {
+        return execute(operation, true, 1, false, call);
+    }
+
+    private <T> T execute(String operation, boolean idempotent, int permits, boolean timed, DriveCall<T> call)
+        throws IOException
+    {
+        final long start = System.currentTimeMillis();
+
+        for (int attempt = 1; ; attempt++)
+        {
+            acquire(permits);
+            final long callStart = System.currentTimeMillis();
+            boolean recorded = false;
+            try
+            {
+                final T response = callRunner != null ? callRunner.run(call) : call.execute();
+                recorded = true;
+                record(null, callStart, timed);
+                return response;
+            }
+            catch (IOException e)
+            {
+                recorded = true;
+                record(e, callStart, timed);
+                if (!isRetryable(e, idempotent) ||
+                    !awaitRetry(operation, attempt, start, getRetryAfterMillis(e)))
+                {
+                    throw e;
+                }
+            }
+            finally
+            {
+                if (!recorded)
+                {
+                    release();
+                }
+            }
+        }
+    }
+
+    /**
+     * Take permits from the quota governor (if any) for Drive requests of the current user, then check the circuit
+     * breaker (if any). The permission of the breaker must then be given back, by {@link #record(IOException, long)}
+     * once Google answered or by {@link #release()} if it did not.
+     *
+     * @param permits the number of Drive requests about to be sent (0 for calls that do not count against the quotas)
+     * @throws GoogleDocsUnavailableException if the circuit breaker is open
+     * @throws GoogleJsonResponseException    (429) if the governor rejected the requests
+     */
+    public void acquire(int permits) throws IOException
+    {
+        // The governor may wait or reject, so it comes first: a half open breaker must not hand out a probe meanwhile
+        if (quotaGovernor != null && permits > 0)
+        {
+            final String user = AuthenticationUtil.getRunAsUser();
+            quotaGovernor.acquire(user != null ? user : "", permits);
+        }
+        if (circuitBreaker != null)
+        {
+            circuitBreaker.acquirePermission();
+        }
+    }
+
+    /**
+     * Give back the circuit breaker permission (if any) of a call that got no answer from Google, e.g. because it
+     * failed with a RuntimeException.
+     */
+    public void release()
+    {
+        if (circuitBreaker != null)
+        {
+            circuitBreaker.release();
+        }
+    }
+
+    /**
+     * Record the outcome of a call in the circuit breaker (if any). Only server and network errors count as failures: a
+     * 4xx means Google is answering.
+     *
+     * @param error     the error the call failed with, null if it succeeded
+     * @param callStart when the call started
+     */
+    public void record(IOException error, long callStart)
+    {
+        record(error, callStart, true);
+    }
+
+    private void record(IOException error, long callStart, boolean timed)
+    {
+        if (circuitBreaker != null)
+        {
+            final boolean failure = error != null && (error instanceof HttpResponseException ?
+                                                      ((HttpResponseException) error).getStatusCode() >= 500 :
+                                                      !isInterrupted(error));
+            circuitBreaker.record(failure, System.currentTimeMillis() - callStart, timed);
+        }
+    }
+
+    /**
+     * Wait before the next attempt of an operation, if the attempts and time budget of the operation allow it.
+     *
+     * @param operation        name of the operation
+     * @param attempt          the attempt that failed (starting at 1)
+     * @param start            when the first attempt started
+     * @param retryAfterMillis the Retry-After sent by Google, if any
+     * @return false if the operation must not be retried
+     * @throws InterruptedIOException
+     */
+    public boolean awaitRetry(String operation, int attempt, long start, Long retryAfterMillis)
+        throws InterruptedIOException
+    {
+        if (attempt >= maxAttempts)
+        {
+            return false;
+        }
+
+        final long budget = maxElapsedMillisByOperation.getOrDefault(operation, maxElapsedMillis);
+        final long delay = getDelayMillis(attempt, retryAfterMillis);
+        if (System.currentTimeMillis() - start + delay > budget)
+        {
+            log.debug(operation + " not retried: retry budget of " + budget + "ms exhausted");
+            return false;
+        }
+
+        log.debug(operation + " failed (attempt " + attempt + "). Retrying in " + delay + "ms");
+        sleep(delay);
+        return true;
+    }
+
+    /**
+     * Is a Google error with the status and reason worth retrying?
+     *
+     * @param statusCode
+     * @param reason     the reason of the error, if any
+     * @param idempotent
+     * @return
+     */
+    public boolean isRetryable(int statusCode, String reason, boolean idempotent)
+    {
+        if (statusCode == SC_TOO_MANY_REQUESTS)
+        {
+            return true;
+        }
+        if (statusCode == SC_FORBIDDEN)
+        {
+            return REASON_USER_RATE_LIMIT_EXCEEDED.equals(reason) ||
+                   REASON_RATE_LIMIT_EXCEEDED.equals(reason);
+        }
+        return idempotent && statusCode >= 500;
+    }
+
+    /**
+     * Delay before the next attempt: a random delay up to the exponential backoff of the attempt (full jitter), unless
+     * Google asked for a longer one.
+     *
+     * @param attempt          the attempt that failed (starting at 1)
+     * @param retryAfterMillis the Retry-After sent by Google, if any
+     * @return
+     */
+    public long getDelayMillis(int attempt, Long retryAfterMillis)
+    {
+        final long backoff = Math.min(maxIntervalMillis,
+            initialIntervalMillis << Math.min(attempt - 1, 30));
+        final long jittered = ThreadLocalRandom.current().nextLong(backoff + 1);
+        return retryAfterMillis != null ? Math.max(retryAfterMillis, jittered) : jittered;
+    }
+
+    private boolean isRetryable(IOException e, boolean idempotent)
+    {
+        if (e instanceof GoogleJsonResponseException)
+        {
+            final GoogleJsonResponseException jsonException = (GoogleJsonResponseException) e;
+            return isRetryable(jsonException.getStatusCode(), getReason(jsonException.getDetails()),
+                idempotent);
+        }
+        if (e instanceof HttpResponseException)
+        {
+            return isRetryable(((HttpResponseException) e).getStatusCode(), null, idempotent);
+        }
+        // No response at all: connection reset, timeout, ...
+        return idempotent && !isInterrupted(e);
+    }
+
+    // Interrupted by us, rather than a socket timeout (which is also an InterruptedIOException)
+    private static boolean isInterrupted(IOException e)
+    {
+        return e instanceof InterruptedIOException && !(e instanceof SocketTimeoutException);
+    }
+
+    private static String getOperation(DriveRequest<?> request)
+    {
+        final Class<?> resource = request.getClass().getEnclosingClass();
+        return (resource != null ? resource.getSimpleName().toLowerCase() + "." : "")
+               + request.getClass().getSimpleName().toLowerCase();
+    }
+
+    private static boolean isIdempotent(DriveRequest<?> request)
+    {
+        return HttpMethods.GET.equals(request.getRequestMethod()) ||
+               HttpMethods.DELETE.equals(request.getRequestMethod());
+    }
+
+    /**
+     * @param error
+     * @return The reason of the first error detail, if any
+     */
+    public static String getReason(GoogleJsonError error)
+    {
+        if (error == null || error.getErrors() == null || error.getErrors().isEmpty())
+        {
+            return null;
+        }
+        return error.getErrors().get(0).getReason();
+    }
+
+    private static Long getRetryAfterMillis(IOException e)
+    {
+        if (!(e instanceof HttpResponseException))
+        {
+            return null;
+        }
+        final HttpHeaders headers = ((HttpResponseException) e).getHeaders();
+        final String retryAfter = headers != null ? headers.getFirstHeaderStringValue(
+            "Retry-After") : null;
+        if (retryAfter == null)
+        {
+            return null;
+        }
+        try
+        {
+            return TimeUnit.SECONDS.toMillis(Long.parseLong(retryAfter.trim()));
+        }
+        catch (NumberFormatException nfe)
+        {
+            // An HTTP date; Google sends seconds
+            return null;
+        }
+    }
+
+    private static void sleep(long millis) throws InterruptedIOException
+    {
+        try
+        {
+            Thread.sleep(millis);
+        }
+        catch (InterruptedException ie)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to retry a Google call");
+        }
+    }
+}
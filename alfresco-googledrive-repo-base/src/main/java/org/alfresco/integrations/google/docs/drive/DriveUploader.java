@@ -0,0 +1,456 @@
+/*
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software.
+ * -
+ * If the software was purchased under a paid Alfresco license, the terms of
+ * the paid license agreement will prevail.  Otherwise, the software is
+ * provided under the following open source license terms:
+ * -
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * -
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * -
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.alfresco.integrations.google.docs.drive;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.alfresco.repo.cache.DefaultSimpleCache;
+import org.alfresco.repo.cache.SimpleCache;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.google.api.client.googleapis.json.GoogleJsonResponseException;
+import com.google.api.client.http.AbstractInputStreamContent;
+import com.google.api.client.http.ByteArrayContent;
+import com.google.api.client.http.EmptyContent;
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpContent;
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpResponse;
+import com.google.api.client.http.json.JsonHttpContent;
+import com.google.api.services.drive.Drive;
+import com.google.api.services.drive.model.File;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.io.ByteStreams;
+
+/**
+ * Uploads content to Google Drive.
+ *
+ * Content smaller than resumableThresholdBytes is sent in a single multipart request. Larger content uses the Drive
+ * resumable upload protocol and is sent in chunks of chunkSizeBytes. The upload session of a node is kept (per user
+ * and content) until the upload completes, so an upload that failed part way, even in an earlier request, continues
+ * from the last byte Google confirmed instead of starting over.
+ *
+ * The session URIs are kept in the sessionCache, a shared cache of the repository, so an upload can be resumed by any
+ * node of the cluster and after a restart of the node that started it. Without one they are only kept in memory.
+ *
+ * The progress of the uploads is kept per user and node, so the client can poll it.
+ */
+public class DriveUploader
+{
+    private static final Log log = LogFactory.getLog(DriveUploader.class);
+
+    private static final String OPERATION_CREATE = "files.create";
+    private static final String OPERATION_CHUNK  = "files.upload";
+
+    // Google requires chunks to be a multiple of 256 KB
+    private static final int CHUNK_GRANULARITY = 256 * 1024;
+
+    private static final int     SC_RESUME_INCOMPLETE = 308;
+    private static final int     SC_NOT_FOUND         = 404;
+    private static final int     SC_GONE              = 410;
+    private static final Pattern RANGE                = Pattern.compile("bytes=0-(\\d+)");
+
+    private DriveRetryPolicy retryPolicy;
+
+    private long resumableThresholdBytes  = 8 * 1024 * 1024;
+    private int  chunkSizeBytes           = 4 * 1024 * 1024;
+    private int  maxSessions              = 1000;
+    private int  sessionTimeToLiveSeconds = 86400;
+
+    private SimpleCache<String, String> sessions;
+    private Cache<String, Progress>     progress;
+
+    public void setRetryPolicy(DriveRetryPolicy retryPolicy)
+    {
+        this.retryPolicy = retryPolicy;
+    }
+
+    public void setResumableThresholdBytes(long resumableThresholdBytes)
+    {
+        this.resumableThresholdBytes = resumableThresholdBytes;
+    }
+
+    public void setChunkSizeBytes(int chunkSizeBytes)
+    {
+        this.chunkSizeBytes = chunkSizeBytes;
+    }
+
+    public void setMaxSessions(int maxSessions)
+    {
+        this.maxSessions = maxSessions;
+    }
+
+    public void setSessionTimeToLiveSeconds(int sessionTimeToLiveSeconds)
+    {
+        this.sessionTimeToLiveSeconds = sessionTimeToLiveSeconds;
+    }
+
+    /**
+     * The URIs of the upload sessions, by session key
+     */
+    public void setSessionCache(SimpleCache<String, String> sessionCache)
+    {
+        this.sessions = sessionCache;
+    }
+
+    public void init()
+    {
+        chunkSizeBytes = Math.max(CHUNK_GRANULARITY, chunkSizeBytes / CHUNK_GRANULARITY * CHUNK_GRANULARITY);
+
+        // Google keeps the upload sessions for a week
+        if (sessions == null)
+        {
+            sessions = new DefaultSimpleCache<>(maxSessions, true, sessionTimeToLiveSeconds, 0,
+                "googledocsUploadSessions");
+        }
+        progress = CacheBuilder
+            .newBuilder()
+            .maximumSize(maxSessions)
+            .expireAfterWrite(1, TimeUnit.HOURS)
+            .build();
+    }
+
+    /**
+     * Create a file in Google Drive with the content.
+     *
+     * @param drive       the Drive client of the user
+     * @param progressKey identifies the upload for the progress (user and node)
+     * @param sessionKey  identifies the content, so an upload session is only resumed for the same content
+     * @param metadata    the file to create
+     * @param content     the content, which must support being read more than once
+     * @param fields      the fields of the created file to return
+     * @return The created file
+     * @throws IOException the error of the last attempt
+     */
+    public File upload(Drive drive, String progressKey, String sessionKey, File metadata,
+        AbstractInputStreamContent content, String fields) throws IOException
+    {
+        final long length = content.getLength();
+        final Progress uploadProgress = new Progress(length);
+        progress.put(progressKey, uploadProgress);
+
+        try
+        {
+            final File file;
+            if (length >= 0 && length < resumableThresholdBytes)
+            {
+                final Drive.Files.Create create = drive.files().create(metadata, content).setFields(fields);
+                create.getMediaHttpUploader().setDirectUploadEnabled(true);
+                file = retryPolicy.execute(create);
+            }
+            else
+            {
+                file = uploadResumable(drive, sessionKey, metadata, content, fields, uploadProgress);
+            }
+            uploadProgress.complete();
+            return file;
+        }
+        catch (IOException | RuntimeException e)
+        {
+            uploadProgress.fail();
+            throw e;
+        }
+    }
+
+    /**
+     * @return The progress of the last upload for the key, or null if there is none
+     */
+    public Progress getProgress(String progressKey)
+    {
+        return progress.getIfPresent(progressKey);
+    }
+
+    private File uploadResumable(Drive drive, String sessionKey, File metadata,
+        AbstractInputStreamContent content, String fields, Progress uploadProgress) throws IOException
+    {
+        // The key identifies the content, so a session found for it is for the same bytes
+        Session session;
+        final String sessionUri = sessions.get(sessionKey);
+        if (sessionUri != null)
+        {
+            log.debug("Resuming the upload session of " + sessionKey);
+            session = new Session(sessionUri, content.getLength());
+            session.resync = true;
+        }
+        else
+        {
+            session = retryPolicy.execute(OPERATION_CREATE, false,
+                () -> startSession(drive, metadata, content, fields));
+            sessions.put(sessionKey, session.uri);
+        }
+
+        final ChunkReader reader = new ChunkReader(content);
+        try
+        {
+            while (true)
+            {
+                final Session current = session;
+                final File file = retryPolicy.executeTransfer(OPERATION_CHUNK,
+                    () -> sendNextChunk(drive, current, reader));
+                if (file != null)
+                {
+                    sessions.remove(sessionKey);
+                    return file;
+                }
+                uploadProgress.setBytesUploaded(session.offset);
+            }
+        }
+        catch (GoogleJsonResponseException e)
+        {
+            if (e.getStatusCode() == SC_NOT_FOUND || e.getStatusCode() == SC_GONE)
+            {
+                // The session expired; the next attempt starts a new one
+                sessions.remove(sessionKey);
+            }
+            throw e;
+        }
+        finally
+        {
+            reader.close();
+        }
+    }
+
+    private Session startSession(Drive drive, File metadata, AbstractInputStreamContent content,
+        String fields) throws IOException
+    {
+        final GenericUrl url = new GenericUrl(drive.getRootUrl() + "upload/" + drive.getServicePath() + "files");
+        url.set("uploadType", "resumable");
+        url.set("fields", fields);
+
+        final HttpRequest request = drive.getRequestFactory().buildPostRequest(url,
+            new JsonHttpContent(drive.getJsonFactory(), metadata));
+        request.getHeaders().set("X-Upload-Content-Type", content.getType());
+        request.getHeaders().set("X-Upload-Content-Length", content.getLength());
+
+        final HttpResponse response = execute(drive, request);
+        try
+        {
+            log.debug("Upload session started for " + metadata.getName());
+            return new Session(response.getHeaders().getLocation(), content.getLength());
+        }
+        finally
+        {
+            response.disconnect();
+        }
+    }
+
+    /**
+     * Send the next chunk of the content (after asking Google how much it got, if the last attempt failed).
+     *
+     * @return The created file once the last chunk has been accepted, otherwise null
+     */
+    private File sendNextChunk(Drive drive, Session session, ChunkReader reader) throws IOException
+    {
+        try
+        {
+            if (session.resync)
+            {
+                final File file = send(drive, session, new EmptyContent(), "bytes */" + session.length);
+                session.resync = false;
+                if (file != null)
+                {
+                    return file;
+                }
+            }
+
+            final byte[] chunk = reader.read(session.offset,
+                (int) Math.min(chunkSizeBytes, session.length - session.offset));
+            final long end = session.offset + chunk.length - 1;
+            return send(drive, session, new ByteArrayContent(null, chunk),
+                "bytes " + session.offset + "-" + end + "/" + session.length);
+        }
+        catch (IOException e)
+        {
+            // Google may have stored part of the chunk
+            session.resync = true;
+            throw e;
+        }
+    }
+
+    private File send(Drive drive, Session session, HttpContent content, String contentRange)
+        throws IOException
+    {
+        final HttpRequest request = drive.getRequestFactory().buildPutRequest(
+            new GenericUrl(session.uri), content);
+        request.getHeaders().setContentRange(contentRange);
+
+        final HttpResponse response = execute(drive, request);
+        try
+        {
+            if (response.getStatusCode() == SC_RESUME_INCOMPLETE)
+            {
+                final String range = response.getHeaders().getRange();
+                final Matcher matcher = range != null ? RANGE.matcher(range) : null;
+                session.offset = matcher != null && matcher.matches() ?
+                                 Long.parseLong(matcher.group(1)) + 1 : 0;
+                return null;
+            }
+            return response.parseAs(File.class);
+        }
+        finally
+        {
+            response.disconnect();
+        }
+    }
+
+    private static HttpResponse execute(Drive drive, HttpRequest request) throws IOException
+    {
+        request.setParser(drive.getObjectParser());
+        request.setFollowRedirects(false);
+        request.setThrowExceptionOnExecuteError(false);
+
+        final HttpResponse response = request.execute();
+        if (!response.isSuccessStatusCode() && response.getStatusCode() != SC_RESUME_INCOMPLETE)
+        {
+            throw GoogleJsonResponseException.from(drive.getJsonFactory(), response);
+        }
+        return response;
+    }
+
+    /**
+     * A resumable upload session: the session URI and the number of bytes Google confirmed.
+     */
+    private static class Session
+    {
+        private final String uri;
+        private final long   length;
+
+        private volatile long    offset;
+        private volatile boolean resync;
+
+        Session(String uri, long length)
+        {
+            this.uri = uri;
+            this.length = length;
+        }
+    }
+
+    /**
+     * Reads the content sequentially, reopening it only when Google asks for bytes that were already read.
+     */
+    private static class ChunkReader
+    {
+        private final AbstractInputStreamContent content;
+
+        private InputStream in;
+        private long        position;
+
+        ChunkReader(AbstractInputStreamContent content)
+        {
+            this.content = content;
+        }
+
+        byte[] read(long offset, int length) throws IOException
+        {
+            if (in == null || offset < position)
+            {
+                close();
+                in = content.getInputStream();
+                position = 0;
+            }
+            ByteStreams.skipFully(in, offset - position);
+
+            final byte[] chunk = new byte[length];
+            ByteStreams.readFully(in, chunk);
+            position = offset + length;
+            return chunk;
+        }
+
+        void close() throws IOException
+        {
+            if (in != null)
+            {
+                in.close();
+                in = null;
+            }
+        }
+    }
+
+    /**
+     * The progress of an upload.
+     */
+    public static class Progress
+    {
+        public enum State
+        {
+            UPLOADING, COMPLETE, FAILED
+        }
+
+        private final long totalBytes;
+
+        private volatile long  bytesUploaded;
+        private volatile State state = State.UPLOADING;
+
+        Progress(long totalBytes)
+        {
+            this.totalBytes = totalBytes;
+        }
+
+        void setBytesUploaded(long bytesUploaded)
+        {
+            this.bytesUploaded = bytesUploaded;
+        }
+
+        void complete()
+        {
+            bytesUploaded = totalBytes;
+            state = State.COMPLETE;
+        }
+
+        void fail()
+        {
+            state = State.FAILED;
+        }
+
+        public long getTotalBytes()
+        {
+            return totalBytes;
+        }
+
+        public long getBytesUploaded()
+        {
+            return bytesUploaded;
+        }
+
+        public State getState()
+        {
+            return state;
+        }
+
+        /**
+         * @return Percentage of the content uploaded
+         */
+        public int getPercent()
+        {
+            return totalBytes <= 0 ? (state == State.COMPLETE ? 100 : 0) :
+                   (int) (bytesUploaded * 100 / totalBytes);
+        }
+    }
+}
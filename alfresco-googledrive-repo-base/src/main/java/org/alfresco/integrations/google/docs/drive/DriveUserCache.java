@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software.
+ * -
+ * If the software was purchased under a paid Alfresco license, the terms of
+ * the paid license agreement will prevail.  Otherwise, the software is
+ * provided under the following open source license terms:
+ * -
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * -
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * -
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.alfresco.integrations.google.docs.drive;
+
+import java.util.concurrent.TimeUnit;
+
+import com.google.api.services.drive.model.User;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * In memory cache of the Google Drive profile (the {@link User} returned by about.get) of the users (per tenant), so
+ * the identity of the user is not fetched again for every revision or permission that has to be checked.
+ */
+public class DriveUserCache
+{
+    private int maxItems          = 1000;
+    private int timeToLiveSeconds = 3600;
+
+    private Cache<String, User> cache;
+
+    public void setMaxItems(int maxItems)
+    {
+        this.maxItems = maxItems;
+    }
+
+    public void setTimeToLiveSeconds(int timeToLiveSeconds)
+    {
+        this.timeToLiveSeconds = timeToLiveSeconds;
+    }
+
+    public void init()
+    {
+        cache = CacheBuilder
+            .newBuilder()
+            .maximumSize(maxItems)
+            .expireAfterWrite(timeToLiveSeconds, TimeUnit.SECONDS)
+            .build();
+    }
+
+    public User get(String userKey)
+    {
+        return cache.getIfPresent(userKey);
+    }
+
+    public void put(String userKey, User user)
+    {
+        cache.put(userKey, user);
+    }
+
+    public void invalidate(String userKey)
+    {
+        cache.invalidate(userKey);
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software.
+ * -
+ * If the software was purchased under a paid Alfresco license, the terms of
+ * the paid license agreement will prevail.  Otherwise, the software is
+ * provided under the following open source license terms:
+ * -
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * -
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * -
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.alfresco.integrations.google.docs.drive;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.TimeUnit;
+
+import org.alfresco.util.TempFileProvider;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.hash.Hashing;
+
+/**
+ * Local copies of the content fetched from Google Drive, keyed by Drive file, revision and mimetype. A revision never
+ * changes, so a cached copy is served for as long as the file has not moved on to a new revision; e.g. when a save is
+ * retried, or attempted again after a concurrent editor conflict.
+ *
+ * The copies are kept in the long life temporary directory. The least recently used copies are removed once they
+ * take more than maxSizeBytes, and copies not used for timeToLiveSeconds are removed.
+ */
+public class ExportCache
+{
+    private static final Log log = LogFactory.getLog(ExportCache.class);
+
+    private static final String DIRECTORY = "googledocs-exports";
+
+    private long maxSizeBytes      = 256L * 1024 * 1024;
+    private int  timeToLiveSeconds = 3600;
+
+    private File                directory;
+    private Cache<String, File> cache;
+
+    public void setMaxSizeBytes(long maxSizeBytes)
+    {
+        this.maxSizeBytes = maxSizeBytes;
+    }
+
+    public void setTimeToLiveSeconds(int timeToLiveSeconds)
+    {
+        this.timeToLiveSeconds = timeToLiveSeconds;
+    }
+
+    public void init()
+    {
+        directory = TempFileProvider.getLongLifeTempDir(DIRECTORY);
+
+        // The copies of a previous run are not indexed
+        final File[] stale = directory.listFiles();
+        if (stale != null)
+        {
+            for (File file : stale)
+            {
+                file.delete();
+            }
+        }
+
+        // A single segment, so the size cap and the LRU order apply to the cache as a whole
+        cache = CacheBuilder
+            .newBuilder()
+            .concurrencyLevel(1)
+            .maximumWeight(maxSizeBytes)
+            .weigher((String key, File file) -> (int) Math.min(file.length(), Integer.MAX_VALUE))
+            .expireAfterAccess(timeToLiveSeconds, TimeUnit.SECONDS)
+            .removalListener((RemovalNotification<String, File> removed) -> {
+                // A replaced copy has the same path as the copy that replaced it
+                if (removed.getCause() != RemovalCause.REPLACED && !removed.getValue().delete())
+                {
+                    log.debug("Unable to remove the cached export " + removed.getValue());
+                }
+            })
+            .build();
+    }
+
+    /**
+     * Give the target the cached content of the revision in the mimetype. The target is a hard link to the cached copy
+     * when the file system allows it, so the content is not copied and stays readable once the copy is evicted.
+     *
+     * @return true if the content was cached
+     * @throws IOException if the content could not be given to the target
+     */
+    public boolean get(String fileId, String revisionId, String mimetype, File target) throws IOException
+    {
+        final String key = key(fileId, revisionId, mimetype);
+        final File file = cache.getIfPresent(key);
+        if (file == null)
+        {
+            return false;
+        }
+        try
+        {
+            link(file, target);
+            return true;
+        }
+        catch (NoSuchFileException e)
+        {
+            // Evicted, or removed from the disk under us
+            cache.invalidate(key);
+            return false;
+        }
+    }
+
+    /**
+     * Keep a copy of the content of the revision in the mimetype, already fetched from Google Drive to a file. The copy
+     * is a hard link to the file when the file system allows it, so the content is not copied.
+     *
+     * @param content the content fetched from Google Drive; it is left as it is
+     * @throws IOException if the content could not be read
+     */
+    public void put(String fileId, String revisionId, String mimetype, File content) throws IOException
+    {
+        final String key = key(fileId, revisionId, mimetype);
+        final File spool = File.createTempFile("export-", ".tmp", directory);
+        try
+        {
+            link(content, spool);
+
+            final File file = new File(directory, key);
+            Files.move(spool.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+            log.debug("Caching " + file.length() + " bytes of " + mimetype + " for " + fileId + " revision "
+                      + revisionId);
+            cache.put(key, file);
+        }
+        finally
+        {
+            spool.delete();
+        }
+    }
+
+    private static void link(File file, File target) throws IOException
+    {
+        Files.deleteIfExists(target.toPath());
+        try
+        {
+            Files.createLink(target.toPath(), file.toPath());
+        }
+        catch (NoSuchFileException e)
+        {
+            throw e;
+        }
+        catch (UnsupportedOperationException | FileSystemException e)
+        {
+            // E.g. the temporary directories are not on the same file system
+            Files.copy(file.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static String key(String fileId, String revisionId, String mimetype)
+    {
+        // The Drive ids and the mimetype are not all safe in file names
+        return Hashing.sha256().hashString(fileId + "|" + revisionId + "|" + mimetype,
+            StandardCharsets.UTF_8).toString();
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software.
+ * -
+ * If the software was purchased under a paid Alfresco license, the terms of
+ * the paid license agreement will prevail.  Otherwise, the software is
+ * provided under the following open source license terms:
+ * -
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * -
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * -
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.alfresco.integrations.google.docs.drive;
+
+import static org.alfresco.integrations.google.docs.GoogleDocsConstants.GDOCS_MIMETYPE_PREFIX;
+
+import com.google.api.services.drive.model.File;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Remembers, per Drive file and per target mimetype, how the content of the file was last fetched from Google Drive.
+ *
+ * Files created in Google Docs (Google Docs, Sheets, Slides) can only be exported to another format; any other file
+ * can only be downloaded as is. The kind of file is known from its Drive mimetype, so the strategy is predicted from
+ * the file metadata when possible; the strategy that worked is remembered so a file is never sent a request that is
+ * known to fail.
+ */
+public class ExportStrategyCache
+{
+    public enum Strategy
+    {
+        // files.export: convert a Google Docs file to the target mimetype
+        EXPORT,
+        // files.get?alt=media: download the content of the file as is
+        DOWNLOAD
+    }
+
+    private int maxItems = 10000;
+
+    private Cache<String, Strategy> cache;
+
+    public void setMaxItems(int maxItems)
+    {
+        this.maxItems = maxItems;
+    }
+
+    public void init()
+    {
+        cache = CacheBuilder
+            .newBuilder()
+            .maximumSize(maxItems)
+            .build();
+    }
+
+    /**
+     * @param file     the Drive file, with its mimeType
+     * @param mimetype the mimetype the content is wanted in
+     * @return The strategy that worked last time, else the one predicted from the Drive mimetype of the file, else null
+     *         if the file metadata does not tell
+     */
+    public Strategy getStrategy(File file, String mimetype)
+    {
+        final Strategy known = cache.getIfPresent(key(file.getId(), mimetype));
+        if (known != null)
+        {
+            return known;
+        }
+        if (file.getMimeType() == null)
+        {
+            return null;
+        }
+        return file.getMimeType().startsWith(GDOCS_MIMETYPE_PREFIX) ? Strategy.EXPORT : Strategy.DOWNLOAD;
+    }
+
+    /**
+     * Remember the strategy that fetched the content of a file.
+     */
+    public void putStrategy(File file, String mimetype, Strategy strategy)
+    {
+        cache.put(key(file.getId(), mimetype), strategy);
+    }
+
+    private static String key(String fileId, String mimetype)
+    {
+        return fileId + "|" + mimetype;
+    }
+}
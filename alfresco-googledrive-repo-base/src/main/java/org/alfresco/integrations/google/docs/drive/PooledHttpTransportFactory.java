@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software.
+ * -
+ * If the software was purchased under a paid Alfresco license, the terms of
+ * the paid license agreement will prevail.  Otherwise, the software is
+ * provided under the following open source license terms:
+ * -
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * -
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * -
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.alfresco.integrations.google.docs.drive;
+
+import java.io.IOException;
+import java.net.ProxySelector;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.impl.conn.SystemDefaultRoutePlanner;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.FactoryBean;
+import org.springframework.beans.factory.InitializingBean;
+
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.http.apache.v2.ApacheHttpTransport;
+
+/**
+ * Builds the single {@link HttpTransport} shared by every Google Drive and OAuth2 client created by the Google Docs
+ * subsystem. The transport is backed by a bounded Apache HttpClient connection pool so that connections (and their TLS
+ * sessions) are kept alive and reused between requests instead of being negotiated for every Drive call.
+ *
+ * The pool is closed when the subsystem is stopped.
+ */
+public class PooledHttpTransportFactory implements FactoryBean<HttpTransport>, InitializingBean,
+    DisposableBean
+{
+    private static final Log log = LogFactory.getLog(PooledHttpTransportFactory.class);
+
+    private int maxTotalConnections           = 200;
+    private int maxConnectionsPerRoute        = 50;
+    private int idleConnectionTimeoutSeconds  = 30;
+    private int keepAliveSeconds              = 60;
+    private int validateAfterInactivityMillis = 2000;
+
+    private CloseableHttpClient httpClient;
+    private HttpTransport       httpTransport;
+
+    public void setMaxTotalConnections(int maxTotalConnections)
+    {
+        this.maxTotalConnections = maxTotalConnections;
+    }
+
+    public void setMaxConnectionsPerRoute(int maxConnectionsPerRoute)
+    {
+        this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+    }
+
+    public void setIdleConnectionTimeoutSeconds(int idleConnectionTimeoutSeconds)
+    {
+        this.idleConnectionTimeoutSeconds = idleConnectionTimeoutSeconds;
+    }
+
+    public void setKeepAliveSeconds(int keepAliveSeconds)
+    {
+        this.keepAliveSeconds = keepAliveSeconds;
+    }
+
+    public void setValidateAfterInactivityMillis(int validateAfterInactivityMillis)
+    {
+        this.validateAfterInactivityMillis = validateAfterInactivityMillis;
+    }
+
+    @Override
+    public void afterPropertiesSet()
+    {
+        final Registry<ConnectionSocketFactory> socketFactoryRegistry = RegistryBuilder
+            .<ConnectionSocketFactory>create()
+            .register("http", PlainConnectionSocketFactory.getSocketFactory())
+            .register("https", SSLConnectionSocketFactory.getSystemSocketFactory())
+            .build();
+
+        final PoolingHttpClientConnectionManager connectionManager =
+            new PoolingHttpClientConnectionManager(socketFactoryRegistry);
+        connectionManager.setMaxTotal(maxTotalConnections);
+        connectionManager.setDefaultMaxPerRoute(maxConnectionsPerRoute);
+        connectionManager.setValidateAfterInactivity(validateAfterInactivityMillis);
+
+        // Honour the keep-alive sent by Google; fall back to our own value when the response does not specify one
+        final ConnectionKeepAliveStrategy keepAliveStrategy = (response, context) -> {
+            long keepAlive = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(
+                response, context);
+            return keepAlive > 0 ? keepAlive : TimeUnit.SECONDS.toMillis(keepAliveSeconds);
+        };
+
+        // Redirects and retries are handled by the Google client library itself
+        httpClient = HttpClientBuilder
+            .create()
+            .useSystemProperties()
+            .setConnectionManager(connectionManager)
+            .setKeepAliveStrategy(keepAliveStrategy)
+            .setRoutePlanner(new SystemDefaultRoutePlanner(ProxySelector.getDefault()))
+            .evictExpiredConnections()
+            .evictIdleConnections(idleConnectionTimeoutSeconds, TimeUnit.SECONDS)
+            .disableRedirectHandling()
+            .disableAutomaticRetries()
+            .build();
+
+        httpTransport = new ApacheHttpTransport(httpClient);
+
+        log.debug("Google Drive HTTP transport created. Max connections: " + maxTotalConnections
+                  + "; Max connections per route: " + maxConnectionsPerRoute);
+    }
+
+    @Override
+    public HttpTransport getObject()
+    {
+        return httpTransport;
+    }
+
+    @Override
+    public Class<?> getObjectType()
+    {
+        return HttpTransport.class;
+    }
+
+    @Override
+    public boolean isSingleton()
+    {
+        return true;
+    }
+
+    @Override
+    public void destroy()
+    {
+        if (httpClient != null)
+        {
+            try
+            {
+                httpClient.close();
+                log.debug("Google Drive HTTP transport closed.");
+            }
+            catch (IOException e)
+            {
+                log.warn("Unable to close the Google Drive HTTP transport: " + e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software.
+ * -
+ * If the software was purchased under a paid Alfresco license, the terms of
+ * the paid license agreement will prevail.  Otherwise, the software is
+ * provided under the following open source license terms:
+ * -
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * -
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * -
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.alfresco.integrations.google.docs.service;
+
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.alfresco.integrations.google.docs.drive.CredentialCache;
+import org.alfresco.repo.security.authentication.AuthenticationUtil;
+import org.alfresco.service.transaction.TransactionService;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+/**
+ * Refreshes the OAuth2 access tokens of the active Google Drive users before they expire, so the refresh does not add
+ * Google round trips to the requests of the users.
+ *
+ * Personal OAuth2 credentials can only be read by their owner, so the users to refresh are taken from the
+ * {@link CredentialCache}: a user stays in the cache while they keep using Google Drive. The tokens of the other users
+ * are refreshed on their next request, as before.
+ */
+public class CredentialRefresher
+{
+    private static final Log log = LogFactory.getLog(CredentialRefresher.class);
+
+    private GoogleDocsServiceImpl googledocsService;
+    private CredentialCache       credentialCache;
+    private TransactionService    transactionService;
+
+    private boolean enabled              = true;
+    private int     intervalSeconds      = 60;
+    private int     refreshWindowSeconds = 600;
+    private int     workerThreads        = 4;
+    private int     queueSize            = 200;
+
+    private ScheduledExecutorService scheduler;
+    private ThreadPoolExecutor       workers;
+
+    // Users with a refresh queued or running
+    private final Set<String> pending = ConcurrentHashMap.newKeySet();
+
+    public void setGoogledocsService(GoogleDocsServiceImpl googledocsService)
+    {
+        this.googledocsService = googledocsService;
+    }
+
+    public void setCredentialCache(CredentialCache credentialCache)
+    {
+        this.credentialCache = credentialCache;
+    }
+
+    public void setTransactionService(TransactionService transactionService)
+    {
+        this.transactionService = transactionService;
+    }
+
+    public void setEnabled(boolean enabled)
+    {
+        this.enabled = enabled;
+    }
+
+    public void setIntervalSeconds(int intervalSeconds)
+    {
+        this.intervalSeconds = intervalSeconds;
+    }
+
+    public void setRefreshWindowSeconds(int refreshWindowSeconds)
+    {
+        this.refreshWindowSeconds = refreshWindowSeconds;
+    }
+
+    public void setWorkerThreads(int workerThreads)
+    {
+        this.workerThreads = workerThreads;
+    }
+
+    public void setQueueSize(int queueSize)
+    {
+        this.queueSize = queueSize;
+    }
+
+    public void init()
+    {
+        if (!enabled)
+        {
+            log.debug("Google Drive credential refresher disabled.");
+            return;
+        }
+
+        CustomizableThreadFactory schedulerThreadFactory = new CustomizableThreadFactory(
+            "GoogleDocsCredentialRefresh-");
+        schedulerThreadFactory.setDaemon(true);
+        scheduler = Executors.newSingleThreadScheduledExecutor(schedulerThreadFactory);
+
+        CustomizableThreadFactory workerThreadFactory = new CustomizableThreadFactory(
+            "GoogleDocsCredentialRefreshWorker-");
+        workerThreadFactory.setDaemon(true);
+        workers = new ThreadPoolExecutor(workerThreads, workerThreads, 60, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(queueSize), workerThreadFactory);
+        workers.allowCoreThreadTimeOut(true);
+
+        scheduler.scheduleWithFixedDelay(this::refreshExpiring, intervalSeconds, intervalSeconds,
+            TimeUnit.SECONDS);
+    }
+
+    public void destroy()
+    {
+        if (scheduler != null)
+        {
+            scheduler.shutdownNow();
+        }
+        if (workers != null)
+        {
+            workers.shutdownNow();
+        }
+    }
+
+    /**
+     * Queue a refresh for every cached credential that expires within the refresh window.
+     */
+    protected void refreshExpiring()
+    {
+        try
+        {
+            for (String userKey : credentialCache.getUserKeysExpiringWithin(refreshWindowSeconds))
+            {
+                if (!pending.add(userKey))
+                {
+                    continue;
+                }
+                try
+                {
+                    workers.execute(() -> refresh(userKey));
+                }
+                catch (RejectedExecutionException e)
+                {
+                    // Left for the next run (or the next request of the user)
+                    pending.remove(userKey);
+                    log.debug("Credential refresh queue full; skipped " + userKey);
+                }
+            }
+        }
+        catch (Exception e)
+        {
+            // Never let an exception cancel the scheduled task
+            log.error("Unable to schedule the Google Drive credential refresh: " + e.getMessage(), e);
+        }
+    }
+
+    private void refresh(final String userKey)
+    {
+        try
+        {
+            AuthenticationUtil.runAs(
+                () -> transactionService.getRetryingTransactionHelper().doInTransaction(() -> {
+                    googledocsService.refreshCredential();
+                    return null;
+                }, false, true), CredentialCache.getUserName(userKey));
+
+            log.debug("Access Token refreshed ahead of expiry for " + userKey);
+        }
+        catch (Exception e)
+        {
+            // The credential is rebuilt (and refreshed if need be) from the store on the next request of the user
+            credentialCache.invalidate(userKey);
+            log.warn("Unable to refresh the Access Token of " + userKey + ": " + e.getMessage());
+        }
+        finally
+        {
+            pending.remove(userKey);
+        }
+    }
+}
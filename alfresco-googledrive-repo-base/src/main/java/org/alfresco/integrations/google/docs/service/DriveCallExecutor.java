@@ -0,0 +1,264 @@
+/*
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software.
+ * -
+ * If the software was purchased under a paid Alfresco license, the terms of
+ * the paid license agreement will prevail.  Otherwise, the software is
+ * provided under the following open source license terms:
+ * -
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * -
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * -
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.alfresco.integrations.google.docs.service;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.alfresco.error.AlfrescoRuntimeException;
+import org.alfresco.integrations.google.docs.drive.DriveRetryPolicy;
+import org.alfresco.repo.security.authentication.AuthenticationUtil;
+import org.alfresco.service.transaction.TransactionService;
+import org.alfresco.util.PropertyCheck;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+/**
+ * Runs Google Docs work on a bounded pool of worker threads, so that independent Google Drive calls can run
+ * concurrently. Used by the {@link GoogleDocsServiceImpl} itself and by the {@link GoogleDocsAsyncService}.
+ *
+ * The authentication of the caller is carried over to the worker (which also sets the tenant of the caller). When the
+ * pool and its queue are full the work runs on the calling thread, so callers slow down instead of failing.
+ *
+ * It also runs the attempts of the blocking Drive and OAuth2 calls of the {@link DriveRetryPolicy}, according to the
+ * execution mode:
+ * <ul>
+ * <li>CALLER: on the calling thread.</li>
+ * <li>OFFLOAD: on a pool of maxConcurrency threads, as the calling user (and tenant). At most maxConcurrency calls are
+ * sent to Google at a time by the repository node; the others wait for their turn. The calling thread waits for its
+ * call, so this bounds the Drive traffic but does not free the request threads (which would need virtual threads, i.e.
+ * Java 21).</li>
+ * </ul>
+ */
+public class DriveCallExecutor implements DriveRetryPolicy.DriveCallRunner
+{
+    private static final Log log = LogFactory.getLog(DriveCallExecutor.class);
+
+    public enum ExecutionMode
+    {
+        CALLER, OFFLOAD
+    }
+
+    private TransactionService transactionService;
+
+    private int           workerThreads  = 8;
+    private int           queueSize      = 100;
+    private ExecutionMode executionMode  = ExecutionMode.CALLER;
+    private int           maxConcurrency = 32;
+
+    private ThreadPoolExecutor workers;
+    private ThreadPoolExecutor callWorkers;
+
+    // Set on the threads of callWorkers: a call they make (e.g. an OAuth2 token refresh) runs on them directly, as
+    // waiting for a call queued behind their own would deadlock
+    private static final ThreadLocal<Boolean> onCallWorker = ThreadLocal.withInitial(() -> false);
+
+    public void setTransactionService(TransactionService transactionService)
+    {
+        this.transactionService = transactionService;
+    }
+
+    public void setWorkerThreads(int workerThreads)
+    {
+        this.workerThreads = workerThreads;
+    }
+
+    public void setQueueSize(int queueSize)
+    {
+        this.queueSize = queueSize;
+    }
+
+    public void setExecutionMode(String executionMode)
+    {
+        this.executionMode = ExecutionMode.valueOf(executionMode.trim().toUpperCase(Locale.ENGLISH));
+    }
+
+    public void setMaxConcurrency(int maxConcurrency)
+    {
+        this.maxConcurrency = maxConcurrency;
+    }
+
+    public void init()
+    {
+        PropertyCheck.mandatory(this, "transactionService", transactionService);
+
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("GoogleDocsAsync-");
+        threadFactory.setDaemon(true);
+        workers = new ThreadPoolExecutor(workerThreads, workerThreads, 60, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(queueSize), threadFactory, new ThreadPoolExecutor.CallerRunsPolicy());
+        workers.allowCoreThreadTimeOut(true);
+
+        if (executionMode == ExecutionMode.OFFLOAD)
+        {
+            CustomizableThreadFactory callThreadFactory = new CustomizableThreadFactory("GoogleDocsDriveCall-");
+            callThreadFactory.setDaemon(true);
+            // The callers wait in the queue for a thread, so the queue is not bounded
+            callWorkers = new ThreadPoolExecutor(maxConcurrency, maxConcurrency, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), callThreadFactory);
+            callWorkers.allowCoreThreadTimeOut(true);
+        }
+        log.debug("Drive calls run in " + executionMode + " mode");
+    }
+
+    public void destroy()
+    {
+        if (workers != null)
+        {
+            workers.shutdownNow();
+        }
+        if (callWorkers != null)
+        {
+            callWorkers.shutdownNow();
+        }
+    }
+
+    /**
+     * Run the work on a worker thread, as the current user.
+     *
+     * @param task          the work to run
+     * @param transactional does the work use the repository? Calls that only talk to Google do not need a transaction
+     *                      (nor hold a database connection while waiting on Google); the OAuth2 credentials store
+     *                      opens its own when a refreshed access token is persisted
+     * @return The outcome of the work. It completes exceptionally with the exception the work threw.
+     */
+    public <T> CompletableFuture<T> submit(final Callable<T> task, final boolean transactional)
+    {
+        final String runAsUser = AuthenticationUtil.getRunAsUser();
+        final CompletableFuture<T> future = new CompletableFuture<>();
+
+        workers.execute(() -> {
+            try
+            {
+                future.complete(AuthenticationUtil.runAs(() -> transactional ?
+                    transactionService.getRetryingTransactionHelper().doInTransaction(task::call, false,
+                        true) : task.call(), runAsUser));
+            }
+            catch (Throwable e)
+            {
+                final Throwable cause = unwrap(e);
+                log.debug("Asynchronous Google Docs call failed: " + cause.getMessage());
+                future.completeExceptionally(cause);
+            }
+        });
+
+        return future;
+    }
+
+    /**
+     * Run an attempt of a Drive call according to the execution mode, and wait for its outcome.
+     *
+     * @param call the call
+     * @return The response of the call
+     * @throws IOException the error of the call; an InterruptedIOException if the thread is interrupted while waiting
+     */
+    @Override
+    public <T> T run(final DriveRetryPolicy.DriveCall<T> call) throws IOException
+    {
+        if (callWorkers == null || onCallWorker.get())
+        {
+            return call.execute();
+        }
+
+        final String runAsUser = AuthenticationUtil.getRunAsUser();
+        final Future<T> future;
+        try
+        {
+            future = callWorkers.submit(() -> {
+                onCallWorker.set(true);
+                try
+                {
+                    return AuthenticationUtil.runAs(call::execute, runAsUser);
+                }
+                finally
+                {
+                    onCallWorker.set(false);
+                }
+            });
+        }
+        catch (RejectedExecutionException e)
+        {
+            // Shut down
+            return call.execute();
+        }
+
+        try
+        {
+            return future.get();
+        }
+        catch (InterruptedException e)
+        {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting on Google Drive");
+        }
+        catch (ExecutionException e)
+        {
+            Throwable cause = e.getCause();
+            // runAs wraps the IOException of the call
+            if (!(cause instanceof IOException) && cause.getCause() instanceof IOException)
+            {
+                cause = cause.getCause();
+            }
+            if (cause instanceof IOException)
+            {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException)
+            {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error)
+            {
+                throw (Error) cause;
+            }
+            throw new IOException(cause.getMessage(), cause);
+        }
+    }
+
+    /**
+     * runAs and the transaction helper wrap the checked exceptions of the work; hand the original exception to the
+     * caller.
+     */
+    private static Throwable unwrap(Throwable e)
+    {
+        Throwable cause = e;
+        while (cause instanceof AlfrescoRuntimeException && cause.getCause() instanceof Exception &&
+               !(cause.getCause() instanceof RuntimeException))
+        {
+            cause = cause.getCause();
+        }
+        return cause;
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software.
+ * -
+ * If the software was purchased under a paid Alfresco license, the terms of
+ * the paid license agreement will prevail.  Otherwise, the software is
+ * provided under the following open source license terms:
+ * -
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * -
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * -
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.alfresco.integrations.google.docs.service;
+
+import java.util.List;
+
+import org.alfresco.integrations.google.docs.service.GoogleDocsService.GooglePermission;
+import org.alfresco.service.cmr.repository.NodeRef;
+
+import com.google.api.services.drive.model.File;
+import com.google.api.services.drive.model.Revision;
+
+/**
+ * The import of the content of a Google Drive file into its node, in three steps:
+ *
+ * <ol>
+ * <li>{@link GoogleDocsService#prepareImport(NodeRef)} reads what is needed from the node (in a transaction)</li>
+ * <li>{@link GoogleDocsService#fetchImport(com.google.api.client.auth.oauth2.Credential, DriveImport)} fetches the file,
+ * its latest revision, content and permissions from Google Drive; the content is spooled to a temporary file. No
+ * transaction is needed (nor should be held open while waiting on Google).</li>
+ * <li>{@link GoogleDocsService#applyImport(DriveImport)} writes the content and metadata to the node (in a
+ * transaction, which can be retried without fetching anything from Google again)</li>
+ * </ol>
+ *
+ * Close the import once done with it, to remove the spooled content.
+ */
+public class DriveImport implements AutoCloseable
+{
+    private final NodeRef nodeRef;
+    private final String  resourceId;
+    private final String  mimetype;
+    private final boolean export;
+    private final String  workingFolderId;
+
+    private File                   file;
+    private Revision               revision;
+    private java.io.File           content;
+    private List<GooglePermission> permissions;
+
+    DriveImport(NodeRef nodeRef, String resourceId, String mimetype, boolean export,
+        String workingFolderId)
+    {
+        this.nodeRef = nodeRef;
+        this.resourceId = resourceId;
+        this.mimetype = mimetype;
+        this.export = export;
+        this.workingFolderId = workingFolderId;
+    }
+
+    public NodeRef getNodeRef()
+    {
+        return nodeRef;
+    }
+
+    /**
+     * @return The id of the file in Google Drive
+     */
+    public String getResourceId()
+    {
+        return resourceId;
+    }
+
+    /**
+     * @return The mimetype the content is imported in
+     */
+    public String getMimetype()
+    {
+        return mimetype;
+    }
+
+    /**
+     * @return Does the node say the file was created in Google Docs (and must be exported), when Drive does not tell?
+     */
+    boolean isExport()
+    {
+        return export;
+    }
+
+    /**
+     * @return The id of the Google Drive working folder of the node, or null if the node has none
+     */
+    public String getWorkingFolderId()
+    {
+        return workingFolderId;
+    }
+
+    /**
+     * @return The Drive file, once fetched
+     */
+    public File getFile()
+    {
+        return file;
+    }
+
+    void setFile(File file)
+    {
+        this.file = file;
+    }
+
+    /**
+     * @return The revision of the file the content was fetched at
+     */
+    public Revision getRevision()
+    {
+        return revision;
+    }
+
+    /**
+     * The latest revision of the file, if the caller already has it; it is then not fetched again.
+     */
+    public void setRevision(Revision revision)
+    {
+        this.revision = revision;
+    }
+
+    java.io.File getContent()
+    {
+        return content;
+    }
+
+    void setContent(java.io.File content)
+    {
+        this.content = content;
+    }
+
+    List<GooglePermission> getPermissions()
+    {
+        return permissions;
+    }
+
+    void setPermissions(List<GooglePermission> permissions)
+    {
+        this.permissions = permissions;
+    }
+
+    @Override
+    public void close()
+    {
+        if (content != null)
+        {
+            content.delete();
+            content = null;
+        }
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software.
+ * -
+ * If the software was purchased under a paid Alfresco license, the terms of
+ * the paid license agreement will prevail.  Otherwise, the software is
+ * provided under the following open source license terms:
+ * -
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * -
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * -
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.alfresco.integrations.google.docs.service;
+
+import org.alfresco.service.cmr.repository.ContentReader;
+import org.alfresco.service.cmr.repository.NodeRef;
+
+/**
+ * What is needed from a node to upload its content to Google Drive, read by
+ * {@link GoogleDocsService#prepareUpload(NodeRef)} (in a transaction) so that
+ * {@link GoogleDocsService#uploadFile(com.google.api.client.auth.oauth2.Credential, DriveUpload)} does not need one.
+ */
+public class DriveUpload
+{
+    private final NodeRef       nodeRef;
+    private final ContentReader reader;
+    private final String        name;
+    private final String        mimetype;
+    private final String        folderName;
+
+    DriveUpload(NodeRef nodeRef, ContentReader reader, String name, String mimetype,
+        String folderName)
+    {
+        this.nodeRef = nodeRef;
+        this.reader = reader;
+        this.name = name;
+        this.mimetype = mimetype;
+        this.folderName = folderName;
+    }
+
+    public NodeRef getNodeRef()
+    {
+        return nodeRef;
+    }
+
+    /**
+     * @return A reader onto the content of the node
+     */
+    ContentReader getReader()
+    {
+        return reader;
+    }
+
+    String getName()
+    {
+        return name;
+    }
+
+    /**
+     * @return The mimetype of the file in Google Drive
+     */
+    String getMimetype()
+    {
+        return mimetype;
+    }
+
+    /**
+     * @return The working folder (site, Shared Files or My Files) of the node in Google Drive, or null
+     */
+    public String getFolderName()
+    {
+        return folderName;
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software.
+ * -
+ * If the software was purchased under a paid Alfresco license, the terms of
+ * the paid license agreement will prevail.  Otherwise, the software is
+ * provided under the following open source license terms:
+ * -
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * -
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * -
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.alfresco.integrations.google.docs.service;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+
+import org.alfresco.service.cmr.repository.NodeRef;
+
+import com.google.api.client.auth.oauth2.Credential;
+import com.google.api.services.drive.model.File;
+import com.google.api.services.drive.model.Revision;
+import com.google.api.services.drive.model.User;
+
+/**
+ * Non blocking variants of the read only {@link GoogleDocsService} calls, so that independent Google Drive requests
+ * can run concurrently and be composed.
+ *
+ * The calls run on a dedicated executor, as the user that made them, and in their own transaction when they use the
+ * repository. The futures complete exceptionally with the exceptions the synchronous calls throw (e.g.
+ * {@link org.alfresco.integrations.google.docs.exceptions.GoogleDocsServiceException}).
+ */
+public interface GoogleDocsAsyncService
+{
+    /**
+     * @see GoogleDocsService#getDriveFile(Credential, String)
+     */
+    CompletableFuture<File> getDriveFile(Credential credential, String resourceID);
+
+    /**
+     * @see GoogleDocsService#getDriveFile(Credential, NodeRef)
+     */
+    CompletableFuture<File> getDriveFile(Credential credential, NodeRef nodeRef);
+
+    /**
+     * @see GoogleDocsService#getDriveUser(Credential)
+     */
+    CompletableFuture<User> getDriveUser(Credential credential);
+
+    /**
+     * @see GoogleDocsService#getLatestRevision(Credential, File)
+     */
+    CompletableFuture<Revision> getLatestRevision(Credential credential, File file);
+
+    /**
+     * @see GoogleDocsService#getLatestRevision(Credential, NodeRef)
+     */
+    CompletableFuture<Revision> getLatestRevision(Credential credential, NodeRef nodeRef);
+
+    /**
+     * @see GoogleDocsService#hasConcurrentEditors(Credential, NodeRef)
+     */
+    CompletableFuture<Boolean> hasConcurrentEditors(Credential credential, NodeRef nodeRef);
+
+    /**
+     * Run some other work on the executor, as the current user and in a new transaction.
+     */
+    <T> CompletableFuture<T> submit(Callable<T> task);
+}
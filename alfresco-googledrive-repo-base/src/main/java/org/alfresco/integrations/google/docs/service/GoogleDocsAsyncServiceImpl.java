@@ -0,0 +1,73 @@
+package org.alfresco.integrations.google.docs.service;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.util.PropertyCheck;
+
+import com.google.api.client.auth.oauth2.Credential;
+import com.google.api.services.drive.model.File;
+import com.google.api.services.drive.model.Revision;
+import com.google.api.services.drive.model.User;
+
+/**
+ * Runs the {@link GoogleDocsService} calls on the {@link DriveCallExecutor}. The calls go through the GoogleDocsService
+ * proxy, so they are secured and audited as the synchronous calls are.
+ */
+public class GoogleDocsAsyncServiceImpl implements GoogleDocsAsyncService
+{
+    private GoogleDocsService googledocsService;
+    private DriveCallExecutor executor;
+
+    public void setGoogledocsService(GoogleDocsService googledocsService)
+    {
+        this.googledocsService = googledocsService;
+    }
+
+    public void setExecutor(DriveCallExecutor executor)
+    {
+        this.executor = executor;
+    }
+
+    public void init()
+    {
+        PropertyCheck.mandatory(this, "googledocsService", googledocsService);
+        PropertyCheck.mandatory(this, "executor", executor);
+    }
+
+    public CompletableFuture<File> getDriveFile(Credential credential, String resourceID)
+    {
+        return executor.submit(() -> googledocsService.getDriveFile(credential, resourceID), false);
+    }
+
+    public CompletableFuture<File> getDriveFile(Credential credential, NodeRef nodeRef)
+    {
+        return executor.submit(() -> googledocsService.getDriveFile(credential, nodeRef), true);
+    }
+
+    public CompletableFuture<User> getDriveUser(Credential credential)
+    {
+        return executor.submit(() -> googledocsService.getDriveUser(credential), false);
+    }
+
+    public CompletableFuture<Revision> getLatestRevision(Credential credential, File file)
+    {
+        return executor.submit(() -> googledocsService.getLatestRevision(credential, file), false);
+    }
+
+    public CompletableFuture<Revision> getLatestRevision(Credential credential, NodeRef nodeRef)
+    {
+        return executor.submit(() -> googledocsService.getLatestRevision(credential, nodeRef), true);
+    }
+
+    public CompletableFuture<Boolean> hasConcurrentEditors(Credential credential, NodeRef nodeRef)
+    {
+        return executor.submit(() -> googledocsService.hasConcurrentEditors(credential, nodeRef), true);
+    }
+
+    public <T> CompletableFuture<T> submit(Callable<T> task)
+    {
+        return executor.submit(task, true);
+    }
+}
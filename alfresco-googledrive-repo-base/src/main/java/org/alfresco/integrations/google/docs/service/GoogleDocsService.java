@@ -28,6 +28,7 @@ import java.io.Serializable;
 import java.util.List;
 import java.util.Map;
 
+import org.alfresco.integrations.google.docs.drive.DriveUploader;
 import org.alfresco.integrations.google.docs.exceptions.GoogleDocsAuthenticationException;
 import org.alfresco.integrations.google.docs.exceptions.GoogleDocsRefreshTokenException;
 import org.alfresco.integrations.google.docs.exceptions.GoogleDocsServiceException;
@@ -272,6 +273,58 @@ public interface GoogleDocsService
         GoogleDocsAuthenticationException, GoogleDocsServiceException,
         GoogleDocsRefreshTokenException, IOException;
 
+    /**
+     * Read what is needed from the node to import its content from Google Drive. Must run in a transaction.
+     *
+     * @param nodeRef
+     * @return The import, to fetch and then apply
+     * @throws GoogleDocsServiceException if the node is not in Google Drive
+     */
+    @Auditable(parameters = {"nodeRef"})
+    DriveImport prepareImport(NodeRef nodeRef) throws GoogleDocsServiceException;
+
+    /**
+     * Fetch the Drive file, its latest revision (unless already set), content and permissions of the import from Google
+     * Drive. Does not use the repository, so does not need a transaction.
+     *
+     * @param credential
+     * @param driveImport
+     */
+    @Auditable(parameters = {"driveImport"})
+    void fetchImport(Credential credential, DriveImport driveImport) throws
+        GoogleDocsAuthenticationException, GoogleDocsServiceException,
+        GoogleDocsRefreshTokenException, IOException;
+
+    /**
+     * Write the fetched content, name, permissions and revision to the node. Must run in a transaction; does not call
+     * Google Drive, so can be retried.
+     *
+     * @param driveImport
+     */
+    @Auditable(parameters = {"driveImport"})
+    void applyImport(DriveImport driveImport) throws GoogleDocsAuthenticationException;
+
+    /**
+     * Fetch only the Drive file and its permissions of the import from Google Drive, when its content is unchanged.
+     * Does not use the repository, so does not need a transaction.
+     *
+     * @param credential
+     * @param driveImport
+     */
+    @Auditable(parameters = {"driveImport"})
+    void fetchImportMetadata(Credential credential, DriveImport driveImport) throws
+        GoogleDocsAuthenticationException, GoogleDocsServiceException,
+        GoogleDocsRefreshTokenException, IOException;
+
+    /**
+     * Write the fetched name and permissions to the node. Must run in a transaction; does not call Google Drive, so can
+     * be retried.
+     *
+     * @param driveImport
+     */
+    @Auditable(parameters = {"driveImport"})
+    void applyImportMetadata(DriveImport driveImport);
+
     /**
      * Upload node to Google Docs
      *
@@ -284,6 +337,36 @@ public interface GoogleDocsService
         GoogleDocsAuthenticationException, GoogleDocsServiceException,
         GoogleDocsRefreshTokenException, IOException;
 
+    /**
+     * Read what is needed from the node to upload it to Google Docs. Must run in a transaction.
+     *
+     * @param nodeRef
+     * @return
+     */
+    @Auditable(parameters = {"nodeRef"})
+    DriveUpload prepareUpload(NodeRef nodeRef);
+
+    /**
+     * Upload node to Google Docs. Does not use the repository, so does not need a transaction.
+     *
+     * @param credential
+     * @param upload
+     * @return
+     */
+    @Auditable(parameters = {"upload"})
+    File uploadFile(Credential credential, DriveUpload upload) throws
+        GoogleDocsAuthenticationException, GoogleDocsServiceException,
+        GoogleDocsRefreshTokenException, IOException;
+
+    /**
+     * Progress of the last upload of the node to Google Docs by the current user
+     *
+     * @param nodeRef
+     * @return null if the node has not been uploaded recently
+     */
+    @Auditable(parameters = {"nodeRef"})
+    DriveUploader.Progress getUploadProgress(NodeRef nodeRef);
+
     /**
      * @param credential
      * @param resourceID Google Drive Resource ID
@@ -337,6 +420,42 @@ public interface GoogleDocsService
         GoogleDocsAuthenticationException, GoogleDocsServiceException,
         GoogleDocsRefreshTokenException, IOException;
 
+    /**
+     * Delete the file and the working folder of a node from Google Drive, leaving the node as it is. Does not use the
+     * repository, so does not need a transaction.
+     *
+     * @param credential
+     * @param file
+     * @param workingFolderId the Google Drive working folder of the node (null if it has none)
+     * @throws GoogleDocsAuthenticationException
+     * @throws GoogleDocsServiceException
+     * @throws GoogleDocsRefreshTokenException
+     * @throws IOException
+     */
+    @Auditable(parameters = {"driveFile", "workingFolderId"})
+    void deleteDriveFile(Credential credential, File file, String workingFolderId) throws
+        GoogleDocsAuthenticationException, GoogleDocsServiceException,
+        GoogleDocsRefreshTokenException, IOException;
+
+    /**
+     * Keep the file of a node in Google Drive instead of deleting it, for the next upload of the node to reuse, if the
+     * copies are to be kept and the file is still at the revision the node was synchronized with. Does not use the
+     * repository, so does not need a transaction.
+     *
+     * @param credential
+     * @param file
+     * @param revisionId the revision the node was synchronized with
+     * @return true if the file is kept, false if it is to be deleted
+     * @throws GoogleDocsAuthenticationException
+     * @throws GoogleDocsServiceException
+     * @throws GoogleDocsRefreshTokenException
+     * @throws IOException
+     */
+    @Auditable(parameters = {"driveFile", "revisionId"})
+    boolean retainDriveFile(Credential credential, File file, String revisionId) throws
+        GoogleDocsAuthenticationException, GoogleDocsServiceException,
+        GoogleDocsRefreshTokenException, IOException;
+
     /**
      * Unlock and Undecorate node; Remove content from users Google Account Does not update the content in Alfresco; If content was
      * newly created by GoogleDocsService it will be removed.
@@ -369,6 +488,30 @@ public interface GoogleDocsService
         GoogleDocsAuthenticationException, GoogleDocsRefreshTokenException,
         GoogleDocsServiceException, IOException;
 
+    /**
+     * Google Doc has Concurrent Editors
+     *
+     * @param credential
+     * @param file
+     * @return
+     */
+    @Auditable(parameters = {"file"})
+    boolean hasConcurrentEditors(Credential credential, File file) throws
+        GoogleDocsAuthenticationException, GoogleDocsRefreshTokenException,
+        GoogleDocsServiceException, IOException;
+
+    /**
+     * Google Doc has Concurrent Editors, judged from revisions of the file already listed
+     *
+     * @param credential
+     * @param revisions  the revisions of the file, as listed by {@link #getRevisions(Credential, File)}
+     * @return
+     */
+    @Auditable(parameters = {"revisions"})
+    boolean hasConcurrentEditors(Credential credential, List<Revision> revisions) throws
+        GoogleDocsAuthenticationException, GoogleDocsRefreshTokenException,
+        GoogleDocsServiceException, IOException;
+
     /**
      * @param nodeRef
      * @return
@@ -393,6 +536,18 @@ public interface GoogleDocsService
         GoogleDocsAuthenticationException, GoogleDocsRefreshTokenException,
         GoogleDocsServiceException, IOException;
 
+    /**
+     * @param file
+     * @return The revisions of the file, oldest first
+     * @throws GoogleDocsAuthenticationException
+     * @throws GoogleDocsRefreshTokenException
+     * @throws GoogleDocsServiceException
+     */
+    @Auditable(parameters = {"file"})
+    List<Revision> getRevisions(Credential credential, File file) throws
+        GoogleDocsAuthenticationException, GoogleDocsRefreshTokenException,
+        GoogleDocsServiceException, IOException;
+
     /**
      * @param nodeRef
      */
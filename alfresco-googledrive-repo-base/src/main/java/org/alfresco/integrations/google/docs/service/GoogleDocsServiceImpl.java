@@ -31,6 +31,9 @@ import static org.alfresco.integrations.google.docs.GoogleDocsConstants.ALF_SITE
 import static org.alfresco.integrations.google.docs.GoogleDocsConstants.ALF_TEMP_FOLDER;
 import static org.alfresco.integrations.google.docs.GoogleDocsConstants.ALF_TEMP_FOLDER_DESC;
 import static org.alfresco.integrations.google.docs.GoogleDocsConstants.APPLICATION_NAME;
+import static org.alfresco.integrations.google.docs.GoogleDocsConstants.APP_PROPERTY_CONTENT_URL;
+import static org.alfresco.integrations.google.docs.GoogleDocsConstants.APP_PROPERTY_NODE_ID;
+import static org.alfresco.integrations.google.docs.GoogleDocsConstants.APP_PROPERTY_REVISION_ID;
 import static org.alfresco.integrations.google.docs.GoogleDocsConstants.CLIENT_SECRET_REDIRECT_URIS;
 import static org.alfresco.integrations.google.docs.GoogleDocsConstants.CLIENT_SECRET_WEB;
 import static org.alfresco.integrations.google.docs.GoogleDocsConstants.DOCUMENT_MIMETYPE;
@@ -73,6 +76,7 @@ import static org.apache.commons.lang3.StringUtils.isNotBlank;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.InputStreamReader;
 import java.io.Serializable;
 import java.io.StringReader;
@@ -85,9 +89,25 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.locks.Lock;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import org.alfresco.integrations.google.docs.drive.ContentChecksumCache;
+import org.alfresco.integrations.google.docs.drive.ContentReaderContent;
+import org.alfresco.integrations.google.docs.drive.CredentialCache;
+import org.alfresco.integrations.google.docs.drive.DriveBatch;
+import org.alfresco.integrations.google.docs.drive.DriveClientCache;
+import org.alfresco.integrations.google.docs.drive.DriveDownloader;
+import org.alfresco.integrations.google.docs.drive.DriveFields;
+import org.alfresco.integrations.google.docs.drive.DriveRetryPolicy;
+import org.alfresco.integrations.google.docs.drive.DriveUploader;
+import org.alfresco.integrations.google.docs.drive.DriveUserCache;
+import org.alfresco.integrations.google.docs.drive.ExportCache;
+import org.alfresco.integrations.google.docs.drive.ExportStrategyCache;
+import org.alfresco.integrations.google.docs.drive.ExportStrategyCache.Strategy;
 import org.alfresco.integrations.google.docs.exceptions.GoogleDocsAuthenticationException;
 import org.alfresco.integrations.google.docs.exceptions.GoogleDocsRefreshTokenException;
 import org.alfresco.integrations.google.docs.exceptions.GoogleDocsServiceException;
@@ -99,6 +119,8 @@ import org.alfresco.integrations.google.docs.utils.FileRevisionComparator;
 import org.alfresco.query.CannedQueryPageDetails;
 import org.alfresco.query.PagingRequest;
 import org.alfresco.query.PagingResults;
+import org.alfresco.repo.cache.DefaultSimpleCache;
+import org.alfresco.repo.cache.SimpleCache;
 import org.alfresco.repo.content.MimetypeMap;
 import org.alfresco.repo.lock.mem.LockState;
 import org.alfresco.repo.policy.BehaviourFilter;
@@ -133,6 +155,7 @@ import org.alfresco.service.cmr.site.SiteService;
 import org.alfresco.service.namespace.NamespaceService;
 import org.alfresco.service.namespace.QName;
 import org.alfresco.util.Pair;
+import org.alfresco.util.PropertyCheck;
 import org.alfresco.util.TempFileProvider;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -143,13 +166,18 @@ import org.springframework.core.io.Resource;
 import com.google.api.client.auth.oauth2.BearerToken;
 import com.google.api.client.auth.oauth2.ClientParametersAuthentication;
 import com.google.api.client.auth.oauth2.Credential;
+import com.google.api.client.auth.oauth2.CredentialRefreshListener;
+import com.google.api.client.auth.oauth2.RefreshTokenRequest;
+import com.google.api.client.auth.oauth2.TokenErrorResponse;
+import com.google.api.client.auth.oauth2.TokenResponse;
 import com.google.api.client.auth.oauth2.TokenResponseException;
 import com.google.api.client.googleapis.auth.oauth2.GoogleAuthorizationCodeFlow;
 import com.google.api.client.googleapis.auth.oauth2.GoogleAuthorizationCodeRequestUrl;
 import com.google.api.client.googleapis.auth.oauth2.GoogleClientSecrets;
 import com.google.api.client.googleapis.auth.oauth2.GoogleTokenResponse;
 import com.google.api.client.googleapis.json.GoogleJsonResponseException;
-import com.google.api.client.http.FileContent;
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpRequestInitializer;
 import com.google.api.client.http.HttpTransport;
 import com.google.api.client.http.javanet.NetHttpTransport;
 import com.google.api.client.json.jackson2.JacksonFactory;
@@ -162,8 +190,7 @@ import com.google.api.services.drive.model.PermissionList;
 import com.google.api.services.drive.model.Revision;
 import com.google.api.services.drive.model.RevisionList;
 import com.google.api.services.drive.model.User;
-import com.google.api.services.oauth2.Oauth2;
-import com.google.api.services.oauth2.model.Userinfo;
+import com.google.common.util.concurrent.Striped;
 
 /**
  * @author Jared Ottley <jared.ottley@alfresco.com>
@@ -194,6 +221,29 @@ public class GoogleDocsServiceImpl implements GoogleDocsService
     private DictionaryService dictionaryService;
     private FileNameUtil      filenameUtil;
 
+    private CredentialCache  credentialCache;
+    private DriveClientCache driveClientCache;
+    private DriveUserCache   driveUserCache;
+    private DriveRetryPolicy retryPolicy;
+    private DriveUploader    driveUploader;
+    private DriveDownloader  driveDownloader;
+
+    private ContentChecksumCache contentChecksumCache;
+    private ExportStrategyCache  exportStrategyCache;
+    private ExportCache          exportCache;
+
+    // The id of the Alfresco working directory in the Google Drive of each user, by user key
+    private SimpleCache<String, String> workingFolderCache;
+
+    private DriveCallExecutor driveExecutor;
+
+    // Serializes the token refreshes of each user; the locks are striped so the number of users does not matter
+    private static final int REFRESH_LOCK_STRIPES = 256;
+    private final Striped<Lock> refreshLocks = Striped.lock(REFRESH_LOCK_STRIPES);
+
+    private static final int WORKING_FOLDER_CACHE_MAX_ITEMS   = 1000;
+    private static final int WORKING_FOLDER_CACHE_TTL_SECONDS = 86400;
+
     // Property Mappings
     private Map<String, String>              importFormats     = new HashMap<>();
     private Map<String, Map<String, String>> exportFormats     = new HashMap<>();
@@ -209,6 +259,9 @@ public class GoogleDocsServiceImpl implements GoogleDocsService
     // concurrent
     private int idleThreshold = 0;
 
+    // Keep the Drive copy of a document discarded unchanged, for the next checkout of the node to reuse
+    private boolean retainUnchangedCopies = true;
+
     private boolean enabled = true;
 
     private String clientSecret;
@@ -303,6 +356,68 @@ public class GoogleDocsServiceImpl implements GoogleDocsService
         this.filenameUtil = fileNameUtil;
     }
 
+    public void setCredentialCache(CredentialCache credentialCache)
+    {
+        this.credentialCache = credentialCache;
+    }
+
+    public void setDriveClientCache(DriveClientCache driveClientCache)
+    {
+        this.driveClientCache = driveClientCache;
+    }
+
+    public void setDriveUserCache(DriveUserCache driveUserCache)
+    {
+        this.driveUserCache = driveUserCache;
+    }
+
+    /**
+     * Cache of the id of the Alfresco working directory of the users, so it is not looked up for every file put in
+     * Google Drive. A cached id is not checked before it is used: it is invalidated once Google Drive no longer knows
+     * the folder. If none is configured a cache local to the repository is created on init.
+     *
+     * @param workingFolderCache
+     */
+    public void setWorkingFolderCache(SimpleCache<String, String> workingFolderCache)
+    {
+        this.workingFolderCache = workingFolderCache;
+    }
+
+    public void setRetryPolicy(DriveRetryPolicy retryPolicy)
+    {
+        this.retryPolicy = retryPolicy;
+    }
+
+    public void setDriveUploader(DriveUploader driveUploader)
+    {
+        this.driveUploader = driveUploader;
+    }
+
+    public void setDriveDownloader(DriveDownloader driveDownloader)
+    {
+        this.driveDownloader = driveDownloader;
+    }
+
+    public void setContentChecksumCache(ContentChecksumCache contentChecksumCache)
+    {
+        this.contentChecksumCache = contentChecksumCache;
+    }
+
+    public void setExportStrategyCache(ExportStrategyCache exportStrategyCache)
+    {
+        this.exportStrategyCache = exportStrategyCache;
+    }
+
+    public void setExportCache(ExportCache exportCache)
+    {
+        this.exportCache = exportCache;
+    }
+
+    public void setDriveExecutor(DriveCallExecutor driveExecutor)
+    {
+        this.driveExecutor = driveExecutor;
+    }
+
     public Map<String, String> getImportFormats()
     {
         return importFormats;
@@ -328,15 +443,82 @@ public class GoogleDocsServiceImpl implements GoogleDocsService
         this.idleThreshold = idleThreshold;
     }
 
+    public void setRetainUnchangedCopies(boolean retainUnchangedCopies)
+    {
+        this.retainUnchangedCopies = retainUnchangedCopies;
+    }
+
     public void setEnabled(boolean enabled)
     {
         this.enabled = enabled;
     }
 
+    /**
+     * The transport shared by all the Drive and OAuth2 clients. If none is configured a (non pooled) default transport
+     * is created on init.
+     *
+     * @param httpTransport
+     */
+    public void setHttpTransport(HttpTransport httpTransport)
+    {
+        this.httpTransport = httpTransport;
+    }
+
     public void init() throws IOException
     {
-        httpTransport = new NetHttpTransport();
-        jsonFactory = new JacksonFactory();
+        // Set up with its transaction service by the subsystem
+        PropertyCheck.mandatory(this, "driveExecutor", driveExecutor);
+
+        if (httpTransport == null)
+        {
+            httpTransport = new NetHttpTransport();
+        }
+        if (credentialCache == null)
+        {
+            credentialCache = new CredentialCache();
+            credentialCache.init();
+        }
+        if (driveUserCache == null)
+        {
+            driveUserCache = new DriveUserCache();
+            driveUserCache.init();
+        }
+        if (workingFolderCache == null)
+        {
+            workingFolderCache = new DefaultSimpleCache<>(WORKING_FOLDER_CACHE_MAX_ITEMS, true,
+                WORKING_FOLDER_CACHE_TTL_SECONDS, 0, "googledocsWorkingFolders");
+        }
+        if (retryPolicy == null)
+        {
+            retryPolicy = new DriveRetryPolicy();
+        }
+        if (driveUploader == null)
+        {
+            driveUploader = new DriveUploader();
+            driveUploader.setRetryPolicy(retryPolicy);
+            driveUploader.init();
+        }
+        if (driveDownloader == null)
+        {
+            driveDownloader = new DriveDownloader();
+            driveDownloader.setRetryPolicy(retryPolicy);
+        }
+        if (contentChecksumCache == null)
+        {
+            contentChecksumCache = new ContentChecksumCache();
+            contentChecksumCache.init();
+        }
+        if (exportStrategyCache == null)
+        {
+            exportStrategyCache = new ExportStrategyCache();
+            exportStrategyCache.init();
+        }
+        if (exportCache == null)
+        {
+            exportCache = new ExportCache();
+            exportCache.init();
+        }
+        jsonFactory = JacksonFactory.getDefaultInstance();
 
         if (isBlank(clientSecret))
         {
@@ -349,9 +531,6 @@ public class GoogleDocsServiceImpl implements GoogleDocsService
         }
     }
 
-    // Required fields from the response
-    private static final String ALL_PROPERTY_FIELDS = "*";
-
     public void setClientSecret(String clientSecret)
         throws GoogleDocsServiceException
     {
@@ -507,7 +686,16 @@ public class GoogleDocsServiceImpl implements GoogleDocsService
     public Credential getCredential() throws GoogleDocsAuthenticationException,
         GoogleDocsRefreshTokenException, GoogleDocsServiceException, IOException
     {
-        Credential credential = null;
+        final String userKey = getUserKey();
+
+        // A cached credential is trusted until shortly before it expires; if it has been revoked the next Drive call
+        // will get a 401 and the credential will refresh itself
+        Credential credential = credentialCache.getIfValid(userKey);
+        if (credential != null)
+        {
+            log.debug("Cached OAuth Credentials used for " + AuthenticationUtil.getRunAsUser());
+            return credential;
+        }
 
         // OAuth credentials for the current user, if the exist
         OAuth2CredentialsInfo credentialInfo = oauth2CredentialsStoreService
@@ -518,72 +706,126 @@ public class GoogleDocsServiceImpl implements GoogleDocsService
             log.debug(
                 "OAuth Credentials Exist for " + AuthenticationUtil.getFullyAuthenticatedUser());
 
-            credential = new Credential
-                .Builder(BearerToken.authorizationHeaderAccessMethod())
-                .setJsonFactory(jsonFactory)
-                .setTransport(httpTransport)
-                .setClientAuthentication(new ClientParametersAuthentication(
-                    clientSecrets.getDetails().getClientId(),
-                    clientSecrets.getDetails().getClientSecret()))
-                .setTokenServerEncodedUrl(clientSecrets.getDetails().getTokenUri())
-                .build();
-            credential.setAccessToken(credentialInfo.getOAuthAccessToken())
-                      .setRefreshToken(credentialInfo.getOAuthRefreshToken())
-                      .setExpirationTimeMilliseconds(
-                          credentialInfo.getOAuthTicketExpiresAt().getTime());
+            credential = buildCredential(credentialInfo);
 
-            try
+            if (credentialCache.isExpiring(credential))
             {
-                log.debug(
-                    "Test oAuth Credentials for " + AuthenticationUtil.getFullyAuthenticatedUser());
-                testConnection(credential);
-            }
-            catch (TokenResponseException e)
-            {
-                credential = getCredentialAfterRefresh();
+                credential = refreshAccessToken(credential.getAccessToken());
             }
+            credentialCache.put(userKey, credential);
         }
 
         log.debug("Google Docs Credentials Created.");
         return credential;
     }
 
-    private Credential getCredentialAfterRefresh()
-        throws GoogleDocsAuthenticationException, IOException, GoogleDocsRefreshTokenException,
-        GoogleDocsServiceException
+    /**
+     * Build the credential for the persisted OAuth2 tokens of the current user. Whenever the credential refreshes its
+     * access token (i.e. when a Drive call is answered with a 401) the new tokens are persisted and cached.
+     *
+     * @param credentialInfo
+     * @return
+     */
+    private Credential buildCredential(OAuth2CredentialsInfo credentialInfo)
     {
-        final Credential credential = refreshAccessToken();
-        testConnection(credential);
+        final String userKey = getUserKey();
+
+        final Credential credential = new Credential
+            .Builder(BearerToken.authorizationHeaderAccessMethod())
+            .setJsonFactory(jsonFactory)
+            .setTransport(httpTransport)
+            .setClientAuthentication(new ClientParametersAuthentication(
+                clientSecrets.getDetails().getClientId(),
+                clientSecrets.getDetails().getClientSecret()))
+            .setTokenServerEncodedUrl(clientSecrets.getDetails().getTokenUri())
+            .addRefreshListener(new CredentialRefreshListener()
+            {
+                public void onTokenResponse(Credential refreshed, TokenResponse tokenResponse)
+                {
+                    persistCredential(userKey, refreshed);
+                }
+
+                public void onTokenErrorResponse(Credential refreshed,
+                    TokenErrorResponse tokenErrorResponse)
+                {
+                    log.debug("Access Token Refresh Failed for " + userKey);
+                    credentialCache.invalidate(userKey);
+                }
+            })
+            .build();
+        credential.setAccessToken(credentialInfo.getOAuthAccessToken())
+                  .setRefreshToken(credentialInfo.getOAuthRefreshToken());
+        if (credentialInfo.getOAuthTicketExpiresAt() != null)
+        {
+            credential.setExpirationTimeMilliseconds(
+                credentialInfo.getOAuthTicketExpiresAt().getTime());
+        }
         return credential;
     }
 
-    private void testConnection(Credential credential)
-        throws TokenResponseException, GoogleDocsServiceException
+    /**
+     * Persist the (refreshed) tokens of the credential for the current user and make it the cached credential.
+     *
+     * @param userKey
+     * @param credential
+     */
+    private void persistCredential(String userKey, Credential credential)
     {
-        final Oauth2 userInfoService = new Oauth2.Builder(new NetHttpTransport(),
-            new JacksonFactory(),
-            credential).setApplicationName(APPLICATION_NAME).build();
-        final Userinfo userInfo;
-        try
+        Date expiresAt = null;
+
+        if (credential.getExpirationTimeMilliseconds() != null
+            && credential.getExpirationTimeMilliseconds() > 0L)
         {
-            userInfo = userInfoService
-                .userinfo()
-                .get()
-                .setFields(ALL_PROPERTY_FIELDS)
-                .execute();
+            expiresAt = new Date(credential.getExpirationTimeMilliseconds());
         }
-        catch (TokenResponseException e)
+
+        oauth2CredentialsStoreService.storePersonalOAuth2Credentials(REMOTE_SYSTEM,
+            credential.getAccessToken(), credential.getRefreshToken(), expiresAt,
+            new Date());
+
+        credentialCache.put(userKey, credential);
+        if (driveClientCache != null)
         {
-            //rethrow before it hits IOException (parent object of TokenResponseException
-            throw e;
+            driveClientCache.updateCredential(userKey, credential);
         }
-        catch (IOException e)
+
+        log.debug("Access Token Refreshed");
+    }
+
+    /**
+     * Refresh the access token of the current user. Only one refresh runs at a time for a user: concurrent callers
+     * wait for it and then use the refreshed credential instead of refreshing the token again.
+     *
+     * @param staleAccessToken the access token the caller wants replaced (null if unknown)
+     * @return
+     * @throws GoogleDocsAuthenticationException
+     * @throws GoogleDocsRefreshTokenException
+     * @throws GoogleDocsServiceException
+     * @throws IOException
+     */
+    private Credential refreshAccessToken(String staleAccessToken)
+        throws GoogleDocsAuthenticationException, GoogleDocsRefreshTokenException,
+        GoogleDocsServiceException, IOException
+    {
+        final String userKey = getUserKey();
+        final Lock lock = refreshLocks.get(userKey);
+
+        lock.lock();
+        try
         {
-            throw new GoogleDocsServiceException("Error creating Connection: " + e.getMessage(), e);
+            // Refreshed by another thread while this one was waiting?
+            Credential cached = credentialCache.getIfValid(userKey);
+            if (cached != null && !cached.getAccessToken().equals(staleAccessToken))
+            {
+                log.debug("Access Token already refreshed for " + userKey);
+                return cached;
+            }
+
+            return refreshAccessToken();
         }
-        if (userInfo == null || userInfo.getId() == null)
+        finally
         {
-            throw new GoogleDocsServiceException("Error creating Connection: No user");
+            lock.unlock();
         }
     }
 
@@ -600,24 +842,22 @@ public class GoogleDocsServiceImpl implements GoogleDocsService
                 "No Refresh Token Provided for " + AuthenticationUtil.getFullyAuthenticatedUser());
         }
 
-        final Credential credential;
-        boolean success;
+        final String userKey = getUserKey();
+        final Credential credential = buildCredential(credentialInfo);
         try
         {
-            credential = new Credential.Builder(
-                BearerToken.authorizationHeaderAccessMethod()).setJsonFactory(
-                jsonFactory).setTransport(httpTransport).setClientAuthentication(
-                new ClientParametersAuthentication(clientSecrets.getDetails().getClientId(),
-                    clientSecrets.getDetails().getClientSecret())).setTokenServerEncodedUrl(
-                clientSecrets.getDetails().getTokenUri()).build();
-            credential.setAccessToken(credentialInfo.getOAuthAccessToken()).setRefreshToken(
-                credentialInfo.getOAuthRefreshToken()).setExpirationTimeMilliseconds(
-                credentialInfo.getOAuthTicketExpiresAt().getTime());
-
-            success = credential.refreshToken();
+            // Sent directly rather than through Credential.refreshToken(), which reports server errors as a failed
+            // refresh instead of throwing them, so they would never be retried
+            final TokenResponse tokenResponse = retryPolicy.execute("oauth2.refreshToken", true,
+                new RefreshTokenRequest(httpTransport, jsonFactory,
+                    new GenericUrl(credential.getTokenServerEncodedUrl()), credential.getRefreshToken())
+                    .setClientAuthentication(credential.getClientAuthentication())::execute);
+            credential.setFromTokenResponse(tokenResponse);
         }
         catch (GoogleJsonResponseException | TokenResponseException e)
         {
+            log.debug("Access Token Refresh Failed for " + userKey);
+            credentialCache.invalidate(userKey);
             if (e.getStatusCode() == SC_BAD_REQUEST)
             {
                 throw new GoogleDocsAuthenticationException(e.getMessage(), e);
@@ -629,30 +869,26 @@ public class GoogleDocsServiceImpl implements GoogleDocsService
             throw new GoogleDocsServiceException(e.getMessage(), e.getStatusCode(), e);
         }
 
-        if (!success)
-        {
-            throw new GoogleDocsAuthenticationException("No Access Grant Returned.");
-        }
-
-        Date expiresIn = null;
-
-        if (credential.getExpirationTimeMilliseconds() != null)
-        {
-            if (credential.getExpirationTimeMilliseconds() > 0L)
-            {
-                expiresIn = new Date(
-                    new Date().getTime() + credential.getExpirationTimeMilliseconds());
-            }
-        }
-
-        oauth2CredentialsStoreService.storePersonalOAuth2Credentials(REMOTE_SYSTEM,
-            credential.getAccessToken(), credential.getRefreshToken(), expiresIn,
-            new Date());
-
-        log.debug("Access Token Refreshed");
+        persistCredential(userKey, credential);
         return credential;
     }
 
+    /**
+     * Refresh the access token of the current user ahead of its expiry. Used by the {@link CredentialRefresher} so the
+     * refresh does not happen while the user waits for a Drive call.
+     *
+     * @throws GoogleDocsAuthenticationException
+     * @throws GoogleDocsRefreshTokenException
+     * @throws GoogleDocsServiceException
+     * @throws IOException
+     */
+    public void refreshCredential() throws GoogleDocsAuthenticationException,
+        GoogleDocsRefreshTokenException, GoogleDocsServiceException, IOException
+    {
+        Credential cached = credentialCache.getIfPresent(getUserKey());
+        refreshAccessToken(cached != null ? cached.getAccessToken() : null);
+    }
+
     private Drive getDriveApiWithCredentialCheck(Credential credential)
         throws GoogleDocsAuthenticationException, GoogleDocsServiceException, IOException,
         GoogleDocsRefreshTokenException
@@ -663,13 +899,31 @@ public class GoogleDocsServiceImpl implements GoogleDocsService
     }
 
     private Drive getDriveApi(Credential credential)
+    {
+        if (driveClientCache == null)
+        {
+            return buildDriveApi(credential);
+        }
+        return driveClientCache.get(getUserKey(), credential, this::buildDriveApi);
+    }
+
+    private Drive buildDriveApi(HttpRequestInitializer requestInitializer)
     {
         log.debug("Initiating Google Drive Connection");
-        return new Drive.Builder(new NetHttpTransport(), new JacksonFactory(),
-            null).setHttpRequestInitializer(credential).setApplicationName(
+        return new Drive.Builder(httpTransport, jsonFactory,
+            null).setHttpRequestInitializer(requestInitializer).setApplicationName(
             APPLICATION_NAME).build();
     }
 
+    /**
+     * @return Key identifying the current user (and tenant) in the per user caches
+     */
+    private String getUserKey()
+    {
+        return CredentialCache.getUserKey(tenantService.getCurrentUserDomain(),
+            AuthenticationUtil.getRunAsUser());
+    }
+
     /**
      * Has the current user authenticated to Google Drive?
      *
@@ -739,10 +993,10 @@ public class GoogleDocsServiceImpl implements GoogleDocsService
     public boolean completeAuthentication(String authorizationCode) throws
         GoogleDocsServiceException, IOException
     {
-        GoogleTokenResponse response = getFlow()
+        // An authorization code can only be used once, so the exchange is not idempotent
+        GoogleTokenResponse response = retryPolicy.execute("oauth2.token", false, getFlow()
             .newTokenRequest(authorizationCode)
-            .setRedirectUri(getRedirectUri())
-            .execute();
+            .setRedirectUri(getRedirectUri())::execute);
 
         try
         {
@@ -770,9 +1024,24 @@ public class GoogleDocsServiceImpl implements GoogleDocsService
                 }
             }
 
+            Date expiresAt = null;
+            if (response.getExpiresInSeconds() != null)
+            {
+                expiresAt = new Date(
+                    System.currentTimeMillis() + response.getExpiresInSeconds() * 1000L);
+            }
+
             oauth2CredentialsStoreService.storePersonalOAuth2Credentials(REMOTE_SYSTEM,
-                response.getAccessToken(), response.getRefreshToken(),
-                new Date(response.getExpiresInSeconds()), new Date());
+                response.getAccessToken(), response.getRefreshToken(), expiresAt, new Date());
+
+            // Forget anything cached for the previous authentication
+            credentialCache.invalidate(getUserKey());
+            driveUserCache.invalidate(getUserKey());
+            workingFolderCache.remove(getUserKey());
+            if (driveClientCache != null)
+            {
+                driveClientCache.invalidate(getUserKey());
+            }
 
             log.debug("Authentication Complete: " + true);
             return true;
@@ -967,43 +1236,183 @@ public class GoogleDocsServiceImpl implements GoogleDocsService
     private void getDriveFileContent(Credential credential, NodeRef nodeRef, String resourceID,
         boolean removeFromDrive) throws IOException, GoogleDocsAuthenticationException,
         GoogleDocsRefreshTokenException, GoogleDocsServiceException
+    {
+        try (DriveImport driveImport = prepareImport(nodeRef))
+        {
+            fetchImport(credential, driveImport);
+            applyImport(driveImport);
+
+            if (removeFromDrive)
+            {
+                deleteContent(credential, nodeRef, driveImport.getFile());
+            }
+        }
+    }
+
+    public DriveImport prepareImport(NodeRef nodeRef) throws GoogleDocsServiceException
+    {
+        final Serializable resourceID = nodeService.getProperty(nodeRef, PROP_RESOURCE_ID);
+        if (resourceID == null)
+        {
+            throw new NotInGoogleDriveException(nodeRef);
+        }
+
+        final FileInfo fileInfo = fileFolderService.getFileInfo(nodeRef);
+        final String contentMimetype = fileInfo.getContentData().getMimetype();
+        final String mimetype = validateMimeType(contentMimetype);
+        log.debug("Current mimetype: " + contentMimetype
+                  + "; Mimetype of Google Doc: " + mimetype);
+        log.debug("Export format: " + mimetype);
+
+        final Object versionType = fileInfo.getProperties().get(PROP_VERSION_TYPE);
+        final String editorURL = String.valueOf(
+            fileInfo.getProperties().getOrDefault(PROP_EDITORURL, ""));
+
+        // Different export mechanisms depending on the GD file mimetype (in GD, not Alfresco)
+        final boolean export = versionType == null ||
+                               isGoogleDriveMimeType(mimetype) ||
+                               editorURL.contains("://docs.google.com/");
+
+        final String id = resourceID.toString();
+        return new DriveImport(nodeRef, id.substring(id.lastIndexOf(':') + 1), mimetype, export,
+            getWorkingFolderId(nodeRef));
+    }
+
+    public void fetchImport(Credential credential, DriveImport driveImport) throws IOException,
+        GoogleDocsAuthenticationException, GoogleDocsRefreshTokenException,
+        GoogleDocsServiceException
     {
         final Drive drive = getDriveApiWithCredentialCheck(credential);
+        final String resourceId = driveImport.getResourceId();
+
+        // The latest revision and the permissions of the file do not depend on the file metadata: they are read while
+        // the file is, and the content is exported while the permissions are still being read
+        final CompletableFuture<Revision> revision = driveImport.getRevision() != null ?
+            CompletableFuture.completedFuture(driveImport.getRevision()) :
+            driveExecutor.submit(() -> getLatestRevision(credential, new File().setId(resourceId)), false);
+        final CompletableFuture<List<GooglePermission>> permissions = driveExecutor.submit(
+            () -> getFilePermissions(credential, resourceId), false);
         try
         {
-            final String contentMimetype = fileFolderService.getFileInfo(
-                nodeRef).getContentData().getMimetype();
-            final String mimetype = validateMimeType(contentMimetype);
-            log.debug("Current mimetype: " + contentMimetype
-                      + "; Mimetype of Google Doc: " + mimetype);
-            log.debug("Export format: " + mimetype);
-
-            final File file = drive
+            final File file = retryPolicy.execute(drive
                 .files()
-                .get(resourceID.substring(resourceID.lastIndexOf(':') + 1))
-                .setFields(ALL_PROPERTY_FIELDS)
-                .execute();
+                .get(resourceId)
+                .setFields(DriveFields.FILE));
+            driveImport.setFile(file);
+
+            // The revision being imported: it keys the export cache and is recorded on the node
+            driveImport.setRevision(await(revision));
+
+            // Spooled from Google (or linked to the export cache) to a local file; the content is never held in
+            // memory, and written to the disk once
+            final java.io.File content = TempFileProvider.createTempFile("googledocs-import-", ".bin");
+            driveImport.setContent(content);
+            fetchExportContent(credential, file, driveImport.getRevision(), driveImport.getMimetype(), drive,
+                driveImport.isExport(), content);
+            log.debug("Fetched " + content.length() + " bytes of " + driveImport.getMimetype() + " for "
+                      + driveImport.getNodeRef());
+
+            driveImport.setPermissions(await(permissions));
+        }
+        catch (GoogleJsonResponseException e)
+        {
+            log.error("Failed to get drive file content", e);
+            throw new GoogleDocsServiceException(e.getMessage(), e.getStatusCode(), e);
+        }
+    }
 
-            final InputStream inputStream = exportGoodleDriveFile(file, mimetype, drive, nodeRef);
+    public void fetchImportMetadata(Credential credential, DriveImport driveImport) throws IOException,
+        GoogleDocsAuthenticationException, GoogleDocsRefreshTokenException,
+        GoogleDocsServiceException
+    {
+        final Drive drive = getDriveApiWithCredentialCheck(credential);
+        final String resourceId = driveImport.getResourceId();
 
-            ContentWriter writer = fileFolderService.getWriter(nodeRef);
-            writer.setMimetype(mimetype);
-            writer.putContent(inputStream);
+        // The permissions are read while the file is
+        final CompletableFuture<List<GooglePermission>> permissions = driveExecutor.submit(
+            () -> getFilePermissions(credential, resourceId), false);
+        try
+        {
+            driveImport.setFile(retryPolicy.execute(drive
+                .files()
+                .get(resourceId)
+                .setFields(DriveFields.FILE)));
+            driveImport.setPermissions(await(permissions));
+        }
+        catch (GoogleJsonResponseException e)
+        {
+            log.error("Failed to get drive file", e);
+            throw new GoogleDocsServiceException(e.getMessage(), e.getStatusCode(), e);
+        }
+    }
 
-            renameNode(nodeRef, file.getName());
+    public void applyImportMetadata(DriveImport driveImport)
+    {
+        final NodeRef nodeRef = driveImport.getNodeRef();
+        renameNode(fileFolderService.getFileInfo(nodeRef), driveImport.getFile().getName(),
+            driveImport.getMimetype());
 
-            saveSharedInfo(credential, nodeRef,
-                resourceID.substring(resourceID.lastIndexOf(':') + 1));
+        saveSharedInfo(nodeRef, driveImport.getPermissions());
+    }
 
-            if (removeFromDrive)
+    /**
+     * Wait for a call made through the executor. It fails as the synchronous call would have.
+     */
+    private static <T> T await(CompletableFuture<T> future) throws IOException,
+        GoogleDocsAuthenticationException, GoogleDocsRefreshTokenException,
+        GoogleDocsServiceException
+    {
+        try
+        {
+            return future.get();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting on Google Drive");
+        }
+        catch (ExecutionException e)
+        {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException)
             {
-                deleteContent(credential, nodeRef, file);
+                throw (IOException) cause;
             }
-            else
+            if (cause instanceof GoogleDocsAuthenticationException)
             {
-                nodeService.setProperty(nodeRef, PROP_REVISION_ID,
-                    getLatestRevision(credential, file).getId());
+                throw (GoogleDocsAuthenticationException) cause;
             }
+            if (cause instanceof GoogleDocsRefreshTokenException)
+            {
+                throw (GoogleDocsRefreshTokenException) cause;
+            }
+            if (cause instanceof GoogleDocsServiceException)
+            {
+                throw (GoogleDocsServiceException) cause;
+            }
+            if (cause instanceof RuntimeException)
+            {
+                throw (RuntimeException) cause;
+            }
+            throw new GoogleDocsServiceException(cause.getMessage(), cause);
+        }
+    }
+
+    public void applyImport(DriveImport driveImport) throws GoogleDocsAuthenticationException
+    {
+        final NodeRef nodeRef = driveImport.getNodeRef();
+        try
+        {
+            final ContentWriter writer = fileFolderService.getWriter(nodeRef);
+            writer.setMimetype(driveImport.getMimetype());
+            writer.putContent(driveImport.getContent());
+            log.debug("Imported " + writer.getSize() + " bytes of " + driveImport.getMimetype() + " into "
+                      + nodeRef);
+
+            applyImportMetadata(driveImport);
+
+            nodeService.setProperty(nodeRef, PROP_REVISION_ID,
+                driveImport.getRevision() != null ? driveImport.getRevision().getId() : null);
 
             postActivity(nodeRef);
 
@@ -1013,11 +1422,6 @@ public class GoogleDocsServiceImpl implements GoogleDocsService
                 log.debug("Temporary Aspect Removed");
             }
         }
-        catch (GoogleJsonResponseException e)
-        {
-            log.error("Failed to get drive file content", e);
-            throw new GoogleDocsServiceException(e.getMessage(), e.getStatusCode(), e);
-        }
         catch (JSONException jsonException)
         {
             throw new GoogleDocsAuthenticationException(
@@ -1025,23 +1429,64 @@ public class GoogleDocsServiceImpl implements GoogleDocsService
         }
     }
 
-    private InputStream exportGoodleDriveFile(final File file, final String mimetype,
-        final Drive drive, final NodeRef nodeRef) throws IOException
+    /**
+     * Save the content of the revision of the file in the mimetype to the target, from the export cache if it was
+     * fetched before.
+     */
+    private void fetchExportContent(final Credential credential, final File file, final Revision revision,
+        final String mimetype, final Drive drive, final boolean export, final java.io.File target) throws
+        IOException, GoogleDocsAuthenticationException, GoogleDocsRefreshTokenException,
+        GoogleDocsServiceException
     {
-        final Object versionType = fileFolderService.getFileInfo(nodeRef).getProperties()
-                                                    .get(PROP_VERSION_TYPE);
+        if (revision == null)
+        {
+            DriveDownloader.saveTo(exportGoodleDriveFile(file, null, mimetype, drive, export), target);
+            return;
+        }
 
-        final String editorURL = String.valueOf(fileFolderService
-            .getFileInfo(nodeRef).getProperties().getOrDefault(PROP_EDITORURL, ""));
+        if (exportCache.get(file.getId(), revision.getId(), mimetype, target))
+        {
+            log.debug("Export of " + file.getId() + " revision " + revision.getId() + " served from the cache");
+            return;
+        }
+        DriveDownloader.saveTo(exportGoodleDriveFile(file, revision.getId(), mimetype, drive, export), target);
 
-        // Different export mechanisms depending on the GD file mimetype (in GD, not Alfresco)
-        if (versionType == null ||
-            isGoogleDriveMimeType(mimetype) ||
-            editorURL.contains("://docs.google.com/"))
+        // A download is of the revision, but an export is of the current content: the file may have moved on to a
+        // new revision since the revision was read, and the content must then not be cached under it
+        if (exportStrategyCache.getStrategy(file, mimetype) == Strategy.EXPORT)
+        {
+            final Revision latestRevision = getLatestRevision(credential, file);
+            if (latestRevision == null || !revision.getId().equals(latestRevision.getId()))
+            {
+                log.debug("File " + file.getId() + " moved on from revision " + revision.getId()
+                          + " while it was exported; the export is not cached");
+                return;
+            }
+        }
+        exportCache.put(file.getId(), revision.getId(), mimetype, target);
+    }
+
+    /**
+     * @param revisionId the revision of the file to download, or null for the current content
+     * @param export     does the node say the file must be exported? Only used when Drive does not tell
+     */
+    private InputStream exportGoodleDriveFile(final File file, final String revisionId, final String mimetype,
+        final Drive drive, final boolean export) throws IOException
+    {
+        Strategy strategy = exportStrategyCache.getStrategy(file, mimetype);
+        if (strategy == null)
+        {
+            strategy = export ? Strategy.EXPORT : Strategy.DOWNLOAD;
+        }
+
+        if (strategy == Strategy.EXPORT)
         {
             try
             {
-                return drive.files().export(file.getId(), mimetype).executeMediaAsInputStream();
+                final InputStream inputStream = retryPolicy.executeMedia(
+                    drive.files().export(file.getId(), mimetype));
+                exportStrategyCache.putStrategy(file, mimetype, Strategy.EXPORT);
+                return inputStream;
             }
             catch (GoogleJsonResponseException e)
             {
@@ -1049,7 +1494,9 @@ public class GoogleDocsServiceImpl implements GoogleDocsService
                     "Failed to export GoogleDrive document from GD mimetype (retrying): " + e.getMessage());
             }
         }
-        return drive.files().get(file.getId()).executeMediaAsInputStream();
+        final InputStream inputStream = driveDownloader.download(drive, file, revisionId);
+        exportStrategyCache.putStrategy(file, mimetype, Strategy.DOWNLOAD);
+        return inputStream;
     }
 
     private static boolean isGoogleDriveMimeType(final String mimeType)
@@ -1151,77 +1598,222 @@ public class GoogleDocsServiceImpl implements GoogleDocsService
         GoogleDocsAuthenticationException, GoogleDocsServiceException,
         GoogleDocsRefreshTokenException, IOException
     {
-        log.debug("Upload " + nodeRef + " to Google");
-        Drive drive = getDriveApiWithCredentialCheck(credential);
-
-        File file;
-
-        // It makes me want to cry that they don't support inputStreams.
-        java.io.File f = null;
+        return uploadFile(credential, prepareUpload(nodeRef));
+    }
+
+    public DriveUpload prepareUpload(NodeRef nodeRef)
+    {
+        // Get the reader
+        ContentReader reader = fileFolderService.getReader(nodeRef);
+
+        // Get the mimetype
+        FileInfo fileInfo = fileFolderService.getFileInfo(nodeRef);
+        String mimetype = fileInfo.getContentData().getMimetype();
+
+        //
+        // https://developers.google.com/drive/api/v2/v3versusv2
+        //
+        //    To import Google Docs formats, you set the appropriate target mimeType in the resource body.
+        //    In v2, you set ?convert=true.
+        //
+        String gdocsType = getImportType(mimetype);
+        if (gdocsType != null)
+        {
+            // note: gdocsType = document, spreadsheet or presentation
+            mimetype = GDOCS_MIMETYPE_PREFIX+gdocsType;
+        }
+
+        return new DriveUpload(nodeRef, reader, fileInfo.getName(), mimetype,
+            getWorkingFolderName(nodeRef));
+    }
+
+    public File uploadFile(Credential credential, DriveUpload upload) throws
+        GoogleDocsAuthenticationException, GoogleDocsServiceException,
+        GoogleDocsRefreshTokenException, IOException
+    {
+        final NodeRef nodeRef = upload.getNodeRef();
+        log.debug("Upload " + nodeRef + " to Google");
+        Drive drive = getDriveApiWithCredentialCheck(credential);
+
+        File file;
+
+        try
+        {
+            final ContentReader reader = upload.getReader();
+            final String mimetype = upload.getMimetype();
+
+            // The user may have kept a copy of the same content in Drive (e.g. it was discarded unchanged)
+            File retained = findRetainedCopy(credential, drive, upload);
+            if (retained != null)
+            {
+                log.debug("Reusing " + retained.getId() + " for " + nodeRef + "; its content is unchanged.");
+                return retained;
+            }
+
+            // Create the working Directory
+            File workingDir = createWorkingDirectory(credential, upload.getFolderName());
+
+            List<String> parents = Collections.singletonList(workingDir.getId());
+            Map<String, String> appProperties = new HashMap<>();
+            appProperties.put(APP_PROPERTY_NODE_ID, nodeRef.getId());
+            appProperties.put(APP_PROPERTY_CONTENT_URL,
+                ContentChecksumCache.getContentUrlDigest(reader.getContentUrl()));
+            file = new File()
+                .setParents(parents)
+                .setName(upload.getName())
+                .setMimeType(mimetype)
+                .setAppProperties(appProperties);
+
+            // Streamed from the content store, no temporary copy. An upload session is only resumed for the same
+            // content
+            ContentReaderContent content = new ContentReaderContent(mimetype, reader);
+            file = driveUploader.upload(drive, getUploadKey(nodeRef),
+                getUploadKey(nodeRef) + "|" + reader.getContentUrl(), file, content,
+                DriveFields.FILE);
+        }
+        catch (IOException e)
+        {
+            throw e;
+        }
+        catch (Exception e)
+        {
+            throw new GoogleDocsServiceException(e.getMessage(), SC_INTERNAL_SERVER_ERROR, e);
+        }
+
+        return file;
+    }
+
+    /**
+     * Look for a copy of the node kept in the Drive of the current user, uploaded from the content the node still has.
+     * Only files the user owns are considered: a file shared with the user by someone else is never reused. The content
+     * in Drive must be unchanged too: a binary file must have the checksum of the node content, a Google document must
+     * still be at the revision it was kept at when it was discarded.
+     *
+     * @param credential
+     * @param drive
+     * @param upload     the upload of the node
+     * @return The file, or null if there is none
+     * @throws IOException
+     */
+    private File findRetainedCopy(Credential credential, Drive drive, DriveUpload upload) throws IOException
+    {
+        final NodeRef nodeRef = upload.getNodeRef();
+        final ContentReader reader = upload.getReader();
+        final String query = "appProperties has { key='" + APP_PROPERTY_NODE_ID + "' and value='"
+                             + nodeRef.getId() + "' } and 'me' in owners and trashed = false";
+        final FileList fileList;
+        try
+        {
+            fileList = retryPolicy.execute(drive.files()
+                                                .list()
+                                                .setQ(query)
+                                                .setFields(DriveFields.RETAINED_FILE_LIST));
+        }
+        catch (GoogleJsonResponseException e)
+        {
+            log.debug("Unable to look for a copy of " + nodeRef + " in Drive: " + e.getMessage());
+            return null;
+        }
+
+        if (fileList.getFiles() != null)
+        {
+            final String contentUrlDigest = ContentChecksumCache.getContentUrlDigest(reader.getContentUrl());
+            String checksum = null;
+            for (File candidate : fileList.getFiles())
+            {
+                final Map<String, String> appProperties = candidate.getAppProperties();
+                if (appProperties == null
+                    || !contentUrlDigest.equals(appProperties.get(APP_PROPERTY_CONTENT_URL))
+                    || !upload.getName().equals(candidate.getName())
+                    || !upload.getMimetype().equals(candidate.getMimeType()))
+                {
+                    continue;
+                }
+                if (candidate.getMd5Checksum() != null)
+                {
+                    if (checksum == null)
+                    {
+                        checksum = contentChecksumCache.getChecksum(reader);
+                    }
+                    if (checksum.equalsIgnoreCase(candidate.getMd5Checksum()))
+                    {
+                        return candidate;
+                    }
+                }
+                else if (appProperties.get(APP_PROPERTY_REVISION_ID) != null)
+                {
+                    try
+                    {
+                        final Revision revision = getLatestRevision(credential, candidate);
+                        if (revision != null && appProperties.get(APP_PROPERTY_REVISION_ID).equals(
+                            revision.getId()))
+                        {
+                            return candidate;
+                        }
+                    }
+                    catch (GoogleDocsServiceException | GoogleDocsAuthenticationException |
+                           GoogleDocsRefreshTokenException e)
+                    {
+                        log.debug("Unable to check the copy " + candidate.getId() + " of " + nodeRef + ": "
+                                  + e.getMessage());
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    public boolean retainDriveFile(Credential credential, File file, String revisionId) throws
+        GoogleDocsAuthenticationException, GoogleDocsServiceException,
+        GoogleDocsRefreshTokenException, IOException
+    {
+        if (!retainUnchangedCopies || file == null || revisionId == null)
+        {
+            return false;
+        }
 
+        Drive drive = getDriveApiWithCredentialCheck(credential);
         try
         {
-            // Get the reader
-            ContentReader reader = fileFolderService.getReader(nodeRef);
-
-            f = java.io.File.createTempFile(nodeRef.getId(), ".tmp", TempFileProvider.getTempDir());
-            reader.getContent(f);
-
-            // Get the mimetype
-            FileInfo fileInfo = fileFolderService.getFileInfo(nodeRef);
-            String mimetype = fileInfo.getContentData().getMimetype();
-
-            //
-            // https://developers.google.com/drive/api/v2/v3versusv2
-            //
-            //    To import Google Docs formats, you set the appropriate target mimeType in the resource body.
-            //    In v2, you set ?convert=true.
-            //
-            String gdocsType = getImportType(mimetype);
-            if (gdocsType != null)
+            final Revision revision = getLatestRevision(credential, file);
+            if (revision == null || !revisionId.equals(revision.getId()))
             {
-                // note: gdocsType = document, spreadsheet or presentation
-                mimetype = GDOCS_MIMETYPE_PREFIX+gdocsType;
+                log.debug("Not keeping " + file.getId() + " in Drive; it was edited since it was uploaded.");
+                return false;
             }
 
-            // Create the working Directory
-            File workingDir = createWorkingDirectory(credential, nodeRef);
-
-            List<String> parents = Collections.singletonList(workingDir.getId());
-            file = new File()
-                .setParents(parents)
-                .setName(fileInfo.getName())
-                .setMimeType(mimetype);
-
-            FileContent fileContent = new FileContent(mimetype, f);
-            file = drive.files()
-                        .create(file, fileContent)
-                        .setFields(ALL_PROPERTY_FIELDS)
-                        .execute();
+            // The next upload of the node reuses the copy while it is still at this revision
+            retryPolicy.execute(drive.files()
+                                     .update(file.getId(), new File().setAppProperties(
+                                         Collections.singletonMap(APP_PROPERTY_REVISION_ID, revisionId)))
+                                     .setFields(DriveFields.RETAINED_FILE));
+            return true;
         }
-        catch (IOException e)
+        catch (GoogleDocsServiceException e)
         {
-            throw e;
+            if (e.getPassedStatusCode() == SC_NOT_FOUND)
+            {
+                throw e;
+            }
+            // The copy is deleted instead
+            log.debug("Unable to keep " + file.getId() + " in Drive: " + e.getMessage());
+            return false;
         }
-        catch (Exception e)
+        catch (GoogleJsonResponseException e)
         {
-            throw new GoogleDocsServiceException(e.getMessage(), SC_INTERNAL_SERVER_ERROR, e);
+            log.debug("Unable to keep " + file.getId() + " in Drive: " + e.getMessage());
+            return false;
         }
-        finally
-        {
-            if (f != null)
-            {
-                boolean success = f.delete();
+    }
 
-                if (!success)
-                {
-                    log.debug(
-                        "The temporary file used to upload to Google Drive was not successfully removed.");
-                }
-            }
-        }
+    public DriveUploader.Progress getUploadProgress(NodeRef nodeRef)
+    {
+        return driveUploader.getProgress(getUploadKey(nodeRef));
+    }
 
-        return file;
+    private String getUploadKey(NodeRef nodeRef)
+    {
+        return getUserKey() + "|" + nodeRef;
     }
 
     /**
@@ -1306,25 +1898,54 @@ public class GoogleDocsServiceImpl implements GoogleDocsService
         GoogleDocsRefreshTokenException, IOException
     {
         log.debug("Delete Google Doc for " + nodeRef);
+        deleteDriveFile(credential, file, getWorkingFolderId(nodeRef));
+
+        unDecorateNode(nodeRef);
+
+        log.debug("Deleted: " + true);
+        return true;
+    }
+
+    public void deleteDriveFile(Credential credential, File file, String workingFolderId) throws
+        GoogleDocsAuthenticationException, GoogleDocsServiceException,
+        GoogleDocsRefreshTokenException, IOException
+    {
         Drive drive = getDriveApiWithCredentialCheck(credential);
 
         try
         {
             if (file != null)
             {
-                drive.files()
-                     .delete(file.getId())
-                     .setFields(ALL_PROPERTY_FIELDS)
-                     .execute();
-
-                // Delete the Working directory in Google Drive (if it exists....this should handle any migration issues)
-                deleteWorkingDirectory(credential, nodeRef);
-            }
+                // Delete the file and the Working directory in Google Drive (if it exists....this should handle any
+                // migration issues) in a single round trip
+                final DriveBatch batch = new DriveBatch(drive, retryPolicy).add(drive.files().delete(file.getId()));
+                if (workingFolderId != null)
+                {
+                    batch.add(drive.files().delete(workingFolderId));
+                }
 
-            unDecorateNode(nodeRef);
+                final List<DriveBatch.Result> results = batch.execute();
+                final DriveBatch.Result fileResult = results.get(0);
+                boolean folderDeleted = false;
+                if (results.size() > 1)
+                {
+                    final DriveBatch.Result folderResult = results.get(1);
+                    folderDeleted = folderResult.isSuccess();
+                    if (!folderDeleted)
+                    {
+                        logFolderDeleteFailure(folderResult.getStatusCode(),
+                            folderResult.getMessage());
+                    }
+                }
 
-            log.debug("Deleted: " + true);
-            return true;
+                // The batch may delete the folder (and the file in it) first
+                if (!fileResult.isSuccess() &&
+                    !(folderDeleted && SC_NOT_FOUND == fileResult.getStatusCode()))
+                {
+                    throw new GoogleDocsServiceException(fileResult.getMessage(),
+                        fileResult.getStatusCode());
+                }
+            }
         }
         catch (GoogleJsonResponseException e)
         {
@@ -1373,31 +1994,46 @@ public class GoogleDocsServiceImpl implements GoogleDocsService
     public Revision getLatestRevision(Credential credential, File file) throws
         GoogleDocsAuthenticationException, GoogleDocsRefreshTokenException,
         GoogleDocsServiceException, IOException
+    {
+        final List<Revision> revisions = getRevisions(credential, file);
+        return revisions.isEmpty() ? null : revisions.get(revisions.size() - 1);
+    }
+
+    public List<Revision> getRevisions(Credential credential, File file) throws
+        GoogleDocsAuthenticationException, GoogleDocsRefreshTokenException,
+        GoogleDocsServiceException, IOException
     {
         Drive drive = getDriveApiWithCredentialCheck(credential);
-        Revision revision = null;
 
         try
         {
-            RevisionList revisionList = drive.revisions()
-                                             .list(file.getId())
-                                             .setFields(ALL_PROPERTY_FIELDS)
-                                             .execute();
-            List<Revision> fileRevisions = revisionList.getRevisions();
-
-            if (fileRevisions != null)
+            RevisionList revisionList = retryPolicy.execute(drive.revisions()
+                                                                 .list(file.getId())
+                                                                 .setFields(DriveFields.REVISION_LIST));
+            List<Revision> revisions = revisionList.getRevisions();
+            if (revisions == null)
             {
-                fileRevisions.sort(new FileRevisionComparator());
-
-                revision = fileRevisions.get(fileRevisions.size() - 1);
+                return Collections.emptyList();
             }
+
+            revisions.sort(new FileRevisionComparator());
+            return revisions;
         }
         catch (GoogleJsonResponseException e)
         {
+            //GOOGLEDOC-326 - need to handle case where 500 is returned but it actually maybe (or should be) a 404
+            if (SC_INTERNAL_SERVER_ERROR == e.getStatusCode())
+            {
+                if (getDriveFile(credential, file.getId()) == null)
+                {
+                    throw new GoogleDocsServiceException(
+                        "Unable to retrived Revisions. The file can no longer be found in Drive.",
+                        SC_NOT_FOUND, e);
+                }
+            }
+
             throw new GoogleDocsServiceException(e.getMessage(), e.getStatusCode(), e);
         }
-
-        return revision;
     }
 
     /*
@@ -1681,25 +2317,20 @@ public class GoogleDocsServiceImpl implements GoogleDocsService
      * Find nodes using duplicate name in same context (folder/space).
      *
      * @param nodeRef
-     * @param name    if null, name will be pulled from nodeRef
+     * @param name
+     * @param mimetype the mimetype of the content of the node
      * @return
      */
-    private NodeRef findLastDuplicate(NodeRef nodeRef, String name)
+    private NodeRef findLastDuplicate(NodeRef nodeRef, String name, String mimetype)
     {
         NodeRef lastDup = null;
 
         List<Pair<QName, Boolean>> sortProps = new ArrayList<>(1);
         sortProps.add(new Pair<>(PROP_NAME, false));
 
-        if (name == null)
-        {
-            name = fileFolderService.getFileInfo(nodeRef).getName();
-        }
-
         PagingResults<FileInfo> results = fileFolderService.list(
             nodeService.getPrimaryParent(nodeRef).getParentRef(), true, false,
-            addWildCardInName(name,
-                fileFolderService.getFileInfo(nodeRef).getContentData().getMimetype()), null,
+            addWildCardInName(name, mimetype), null,
             sortProps, new PagingRequest(CannedQueryPageDetails.DEFAULT_PAGE_SIZE));
 
         List<FileInfo> page = results.getPage();
@@ -1770,12 +2401,15 @@ public class GoogleDocsServiceImpl implements GoogleDocsService
      * the name in Alfresco. If the name is already in use in the current folder, append -{number} to the name or if it already has
      * a -{number} increment the number for the new file
      *
-     * @param nodeRef
-     * @param name    New name
+     * @param fileInfo the node, as read before its content was replaced
+     * @param name     New name
+     * @param mimetype the mimetype of the new content of the node
      */
-    private void renameNode(NodeRef nodeRef, String name)
+    private void renameNode(FileInfo fileInfo, String name, String mimetype)
         throws ConstraintException
     {
+        final NodeRef nodeRef = fileInfo.getNodeRef();
+
         // First, is the file name valid?
         ConstraintDefinition filenameConstraintDef = dictionaryService.getConstraint(
             QName.createQName(NamespaceService.CONTENT_MODEL_1_0_URI, "filename"));
@@ -1784,9 +2418,6 @@ public class GoogleDocsServiceImpl implements GoogleDocsService
         // Not all file types can be round-tripped. This should correct
         // extensions on files where the format is modified or add an extension
         // to file types where there is no extension
-        FileInfo fileInfo = fileFolderService.getFileInfo(nodeRef);
-        String mimetype = fileInfo.getContentData().getMimetype();
-
         switch (mimetype)
         {
         case "application/vnd.openxmlformats-officedocument.wordprocessingml.document":
@@ -1831,7 +2462,7 @@ public class GoogleDocsServiceImpl implements GoogleDocsService
         }
 
         // Get the last known node with the same name (+number) in the same folder
-        NodeRef lastDup = findLastDuplicate(nodeRef, name);
+        NodeRef lastDup = findLastDuplicate(nodeRef, name, mimetype);
 
         if (lastDup != null)
         {
@@ -1839,8 +2470,7 @@ public class GoogleDocsServiceImpl implements GoogleDocsService
             if (!lastDup.equals(fileInfo.getNodeRef()))
             {
                 name = filenameUtil.incrementFileName(
-                    fileFolderService.getFileInfo(lastDup).getName(),
-                    fileInfo.getContentData().getMimetype());
+                    fileFolderService.getFileInfo(lastDup).getName(), mimetype);
             }
         }
 
@@ -1856,25 +2486,35 @@ public class GoogleDocsServiceImpl implements GoogleDocsService
         GoogleDocsAuthenticationException, GoogleDocsRefreshTokenException,
         GoogleDocsServiceException, IOException
     {
-        log.debug(
-            "Check for Concurrent Editors (Edits that have occured in the last " + idleThreshold + " seconds)");
-        Drive drive = getDriveApiWithCredentialCheck(credential);
-        boolean concurrentChange = false;
-
         if (!nodeService.hasAspect(nodeRef, ASPECT_EDITING_IN_GOOGLE))
         {
             throw new AspectMissingException(ASPECT_EDITING_IN_GOOGLE, nodeRef);
         }
 
         final String resourceID = nodeService.getProperty(nodeRef, PROP_RESOURCE_ID).toString();
+        return hasConcurrentEditors(credential,
+            new File().setId(resourceID.substring(resourceID.lastIndexOf(':') + 1)));
+    }
+
+    public boolean hasConcurrentEditors(Credential credential, File file) throws
+        GoogleDocsAuthenticationException, GoogleDocsRefreshTokenException,
+        GoogleDocsServiceException, IOException
+    {
+        return hasConcurrentEditors(credential, getRevisions(credential, file));
+    }
+
+    public boolean hasConcurrentEditors(Credential credential, List<Revision> fileRevisions) throws
+        GoogleDocsAuthenticationException, GoogleDocsRefreshTokenException,
+        GoogleDocsServiceException, IOException
+    {
+        log.debug(
+            "Check for Concurrent Editors (Edits that have occured in the last " + idleThreshold + " seconds)");
+        boolean concurrentChange = false;
+
         try
         {
-            RevisionList revisionList = drive
-                .revisions()
-                .list(resourceID.substring(resourceID.lastIndexOf(':') + 1))
-                .setFields(ALL_PROPERTY_FIELDS)
-                .execute();
-            List<Revision> revisions = revisionList.getRevisions();
+            // Sorted here, so the list of the caller is left as it is
+            List<Revision> revisions = new ArrayList<>(fileRevisions);
 
             if (revisions.size() > 1)
             {
@@ -1908,11 +2548,12 @@ public class GoogleDocsServiceImpl implements GoogleDocsService
                 if (workingList.size() > 0)
                 {
                     log.debug("Revisions within threshhold found");
+                    String emailAddress = getDriveUser(credential).getEmailAddress();
+
                     // Filter the current user from the list
                     for (int i = workingList.size() - 1; i >= 0; i--)
                     {
                         Revision revision = workingList.get(i);
-                        String emailAddress = getDriveUser(credential).getEmailAddress();
 
                         // if there is no author -- the entry is the initial
                         // creation
@@ -1940,7 +2581,7 @@ public class GoogleDocsServiceImpl implements GoogleDocsService
                     concurrentChange = true;
                 }
             }
-            else
+            else if (revisions.size() == 1)
             {
                 String emailAddress = getDriveUser(credential).getEmailAddress();
 
@@ -1968,19 +2609,6 @@ public class GoogleDocsServiceImpl implements GoogleDocsService
         }
         catch (GoogleJsonResponseException e)
         {
-            //GOOGLEDOC-326 - need to handle case where 500 is returned but it actually maybe (or should be) a 404
-            if (SC_INTERNAL_SERVER_ERROR == e.getStatusCode())
-            {
-                File file = getDriveFile(credential, nodeRef);
-
-                if (file == null)
-                {
-                    throw new GoogleDocsServiceException(
-                        "Unable to retrived Revisions. The file can no longer be found in Drive.",
-                        SC_NOT_FOUND, e);
-                }
-            }
-
             throw new GoogleDocsServiceException(e.getMessage(), e.getStatusCode(), e);
         }
 
@@ -1997,10 +2625,9 @@ public class GoogleDocsServiceImpl implements GoogleDocsService
         Drive drive = getDriveApiWithCredentialCheck(credential);
         try
         {
-            return drive.files()
-                        .get(resourceID.substring(resourceID.lastIndexOf(':') + 1))
-                        .setFields(ALL_PROPERTY_FIELDS)
-                        .execute();
+            return retryPolicy.execute(drive.files()
+                                            .get(resourceID.substring(resourceID.lastIndexOf(':') + 1))
+                                            .setFields(DriveFields.FILE));
         }
         catch (GoogleJsonResponseException e)
         {
@@ -2027,13 +2654,24 @@ public class GoogleDocsServiceImpl implements GoogleDocsService
     public User getDriveUser(Credential credential) throws GoogleDocsAuthenticationException,
         GoogleDocsRefreshTokenException, GoogleDocsServiceException, IOException
     {
+        final String userKey = getUserKey();
+        final User cached = driveUserCache.get(userKey);
+        if (cached != null)
+        {
+            return cached;
+        }
+
         log.debug("Get Google Docs user metadata");
 
         final Drive drive = getDriveApiWithCredentialCheck(credential);
 
         try
         {
-            final About about = drive.about().get().setFields(ALL_PROPERTY_FIELDS).execute();
+            final About about = retryPolicy.execute(drive.about().get().setFields(DriveFields.ABOUT));
+            if (about.getUser() != null)
+            {
+                driveUserCache.put(userKey, about.getUser());
+            }
             return about.getUser();
         }
         catch (GoogleJsonResponseException e)
@@ -2109,7 +2747,7 @@ public class GoogleDocsServiceImpl implements GoogleDocsService
      * @throws GoogleDocsServiceException
      * @throws IOException
      */
-    private List<GooglePermission> getFilePermissions(Credential credential,
+    List<GooglePermission> getFilePermissions(Credential credential,
         String resourceId) throws GoogleDocsAuthenticationException,
         GoogleDocsRefreshTokenException, GoogleDocsServiceException, IOException
     {
@@ -2122,11 +2760,10 @@ public class GoogleDocsServiceImpl implements GoogleDocsService
         }
         User user = getDriveUser(credential);
         log.debug("Fetching permissions for file with resource ID " + resourceId);
-        PermissionList permissionList = drive.permissions()
-                                             .list(resourceId.substring(
-                                                 resourceId.lastIndexOf(':') + 1))
-                                             .setFields(ALL_PROPERTY_FIELDS)
-                                             .execute();
+        PermissionList permissionList = retryPolicy.execute(drive.permissions()
+                                                                 .list(resourceId.substring(
+                                                                     resourceId.lastIndexOf(':') + 1))
+                                                                 .setFields(DriveFields.PERMISSION_LIST));
 
         for (Permission permission : permissionList.getPermissions())
         {
@@ -2166,7 +2803,7 @@ public class GoogleDocsServiceImpl implements GoogleDocsService
     }
 
     /**
-     * Look up information from Google that describes the current state of the document, and store this into the repository.
+     * Store the information looked up from Google that describes the current state of the document into the repository.
      * <p/>
      * <p>
      * It is intended that this should be called prior to deleting the document from Google, and allows the state to be re-applied
@@ -2177,19 +2814,11 @@ public class GoogleDocsServiceImpl implements GoogleDocsService
      * At present this stores only information on which Google users were explicitly listed as collaborators on the document.
      * </p>
      *
-     * @param nodeRef    Noderef identifying the file in the repository
-     * @param resourceId Identifier for the file on Google
-     * @throws GoogleDocsAuthenticationException
-     * @throws GoogleDocsRefreshTokenException
-     * @throws GoogleDocsServiceException
-     * @throws IOException
+     * @param nodeRef        Noderef identifying the file in the repository
+     * @param permissionsMap the permissions of the file on Google
      */
-    private void saveSharedInfo(Credential credential, NodeRef nodeRef, String resourceId) throws
-        GoogleDocsAuthenticationException, GoogleDocsRefreshTokenException,
-        GoogleDocsServiceException, IOException
+    private void saveSharedInfo(NodeRef nodeRef, List<GooglePermission> permissionsMap)
     {
-        List<GooglePermission> permissionsMap = getFilePermissions(credential,
-            resourceId.substring(resourceId.lastIndexOf(':') + 1));
         Serializable permissionsList = buildPermissionsPropertyValue(permissionsMap);
         Map<QName, Serializable> aspectProperties = new HashMap<>();
         aspectProperties.put(PROP_PERMISSIONS, permissionsList);
@@ -2280,6 +2909,8 @@ public class GoogleDocsServiceImpl implements GoogleDocsService
             log.debug("Adding permissions on item " + file.getId() + " in Google");
         }
 
+        // All the permissions are created in a single round trip
+        final DriveBatch batch = new DriveBatch(drive, retryPolicy);
         for (GooglePermission p : permissions)
         {
             String roleName = p.getRoleName(), authorityType = p.getAuthorityType();
@@ -2333,11 +2964,40 @@ public class GoogleDocsServiceImpl implements GoogleDocsService
                     "Adding permission " + role + " for " + type + " " + p.getAuthorityId() + "");
             }
 
-            drive.permissions()
-                 .create(file.getId(), new Permission().setRole(role).setType(type).setEmailAddress(
-                     p.getAuthorityId()))
-                 .setFields(ALL_PROPERTY_FIELDS)
-                 .execute();
+            batch.add(drive.permissions()
+                           .create(file.getId(), new Permission().setRole(role).setType(type)
+                                                                 .setEmailAddress(p.getAuthorityId()))
+                           .setFields(DriveFields.PERMISSION));
+        }
+
+        if (batch.size() == 0)
+        {
+            return;
+        }
+
+        final List<DriveBatch.Result> results = batch.execute();
+        DriveBatch.Result firstFailure = null;
+        int failures = 0;
+        for (int i = 0; i < results.size(); i++)
+        {
+            final DriveBatch.Result result = results.get(i);
+            if (!result.isSuccess())
+            {
+                log.debug("Unable to add permission for " + permissions.get(i).getAuthorityId()
+                          + ": " + result.getStatusCode() + " " + result.getMessage());
+                failures++;
+                if (firstFailure == null)
+                {
+                    firstFailure = result;
+                }
+            }
+        }
+
+        if (firstFailure != null)
+        {
+            throw new GoogleDocsServiceException(
+                "Unable to add " + failures + " of " + results.size() + " permissions: "
+                + firstFailure.getMessage(), firstFailure.getStatusCode());
         }
     }
 
@@ -2345,42 +3005,117 @@ public class GoogleDocsServiceImpl implements GoogleDocsService
         GoogleDocsAuthenticationException, GoogleDocsRefreshTokenException,
         GoogleDocsServiceException, IOException
     {
-        File file = null;
+        return createWorkingDirectory(credential, getWorkingFolderName(nodeRef));
+    }
+
+    /**
+     * @param folderName the working folder of the node, in the Alfresco working directory (null for none)
+     */
+    private File createWorkingDirectory(Credential credential, String folderName) throws
+        GoogleDocsAuthenticationException, GoogleDocsRefreshTokenException,
+        GoogleDocsServiceException, IOException
+    {
+        final String userKey = getUserKey();
 
-        // Get or create the parent folder
-        if (googleDriveFolderExists(credential, ROOT_FOLDER_ID, ALF_TEMP_FOLDER))
+        // The working directory of the user is only looked up once; it is checked by creating the folder in it
+        final String cachedId = workingFolderCache.get(userKey);
+        if (cachedId != null)
         {
-            List<File> files = getFolder(credential, ROOT_FOLDER_ID, ALF_TEMP_FOLDER);
-
-            // Look for our description if there is more than one file returned
-            if (!files.isEmpty() && files.size() > 1)
+            if (folderName == null)
             {
-                for (File f : files)
+                // Nothing is created in it here, so check it still exists
+                if (isWorkingDirectory(credential, cachedId))
                 {
-                    if (ALF_TEMP_FOLDER_DESC.equals(f.getDescription()))
-                    {
-                        file = f;
-                        break;
-                    }
+                    return new File().setId(cachedId);
                 }
-
-                if (file == null)
+                workingFolderCache.remove(userKey);
+                return createWorkingDirectory(credential, (String) null);
+            }
+            try
+            {
+                return createFolder(credential, cachedId, folderName, null);
+            }
+            catch (GoogleDocsServiceException e)
+            {
+                if (e.getPassedStatusCode() != SC_NOT_FOUND)
                 {
-                    file = createFolder(credential, ROOT_FOLDER_ID, ALF_TEMP_FOLDER,
-                        ALF_TEMP_FOLDER_DESC);
+                    throw e;
                 }
+                log.debug("Working directory " + cachedId + " no longer found in Google Drive");
+                workingFolderCache.remove(userKey);
             }
-            else if (files.size() == 1)
+        }
+
+        File file = getWorkingDirectory(credential);
+        workingFolderCache.put(userKey, file.getId());
+
+        //If the folder name is not set (GOOGLEDOCS-301) place it directly the working directory
+        if (folderName != null)
+        {
+            file = createFolder(credential, file.getId(), folderName, null);
+        }
+
+        return file;
+    }
+
+    /**
+     * @return true if the cached working directory is still in the Google Drive of the user (and not in its trash)
+     */
+    private boolean isWorkingDirectory(Credential credential, String folderId) throws
+        GoogleDocsAuthenticationException, GoogleDocsRefreshTokenException,
+        GoogleDocsServiceException, IOException
+    {
+        Drive drive = getDriveApiWithCredentialCheck(credential);
+        try
+        {
+            File folder = retryPolicy.execute(drive.files()
+                                                   .get(folderId)
+                                                   .setFields(DriveFields.FOLDER));
+            return !Boolean.TRUE.equals(folder.getTrashed());
+        }
+        catch (GoogleJsonResponseException e)
+        {
+            if (e.getStatusCode() == SC_NOT_FOUND)
             {
-                file = files.get(0);
+                log.debug("Working directory " + folderId + " no longer found in Google Drive");
+                return false;
             }
+            throw new GoogleDocsServiceException(e.getMessage(), e.getStatusCode(), e);
         }
-        else
+    }
+
+    /**
+     * Get or create the Alfresco working directory in the root of the Google Drive of the user
+     */
+    private File getWorkingDirectory(Credential credential) throws
+        GoogleDocsAuthenticationException, GoogleDocsRefreshTokenException,
+        GoogleDocsServiceException, IOException
+    {
+        List<File> files = getFolder(credential, ROOT_FOLDER_ID, ALF_TEMP_FOLDER);
+
+        if (files.size() == 1)
+        {
+            return files.get(0);
+        }
+
+        // Look for our description if there is more than one file returned
+        for (File f : files)
         {
-            file = createFolder(credential, ROOT_FOLDER_ID, ALF_TEMP_FOLDER, ALF_TEMP_FOLDER_DESC);
+            if (ALF_TEMP_FOLDER_DESC.equals(f.getDescription()))
+            {
+                return f;
+            }
         }
 
-        // create working directory
+        return createFolder(credential, ROOT_FOLDER_ID, ALF_TEMP_FOLDER, ALF_TEMP_FOLDER_DESC);
+    }
+
+    /**
+     * @return The working folder of the node (the site, Shared Files or My Files) in the Alfresco working directory, or
+     *         null if the node is in a site that cannot be resolved
+     */
+    private String getWorkingFolderName(NodeRef nodeRef)
+    {
         String folderName = null;
         String pathElement = getPathElement(nodeRef, 2);
         SiteInfo siteInfo;
@@ -2408,13 +3143,7 @@ public class GoogleDocsServiceImpl implements GoogleDocsService
             }
         }
 
-        //If the folder name is not set (GOOGLEDOCS-301) place it directly the working directory
-        if (folderName != null && file != null)
-        {
-            file = createFolder(credential, file.getId(), folderName, null);
-        }
-
-        return file;
+        return folderName;
     }
 
     private String getPathElement(NodeRef nodeRef, int position)
@@ -2424,34 +3153,18 @@ public class GoogleDocsServiceImpl implements GoogleDocsService
         return element.toString();
     }
 
-    private void deleteWorkingDirectory(Credential credential, NodeRef nodeRef) throws
-        GoogleDocsAuthenticationException, GoogleDocsRefreshTokenException,
-        GoogleDocsServiceException, IOException
+    /**
+     * @param nodeRef
+     * @return The id of the Google Drive working folder of the node, or null if the node has none
+     */
+    private String getWorkingFolderId(NodeRef nodeRef)
     {
         if (nodeService.getProperty(nodeRef, PROP_DRIVE_WORKING_FOLDER) != null &&
             isNotBlank(nodeService.getProperty(nodeRef, PROP_DRIVE_WORKING_FOLDER).toString()))
         {
-            String id = nodeService.getProperty(nodeRef, PROP_DRIVE_WORKING_FOLDER).toString();
-            deleteFolder(credential, id);
+            return nodeService.getProperty(nodeRef, PROP_DRIVE_WORKING_FOLDER).toString();
         }
-    }
-
-    /**
-     * Does a folder with the name and in the parent folder exist. (Note: there may be more than one)
-     *
-     * @param parentId
-     * @param folderName
-     * @return
-     * @throws GoogleDocsAuthenticationException
-     * @throws GoogleDocsRefreshTokenException
-     * @throws GoogleDocsServiceException
-     */
-    private boolean googleDriveFolderExists(Credential credential, String parentId,
-        String folderName) throws GoogleDocsAuthenticationException,
-        GoogleDocsRefreshTokenException, GoogleDocsServiceException, IOException
-    {
-        List<File> files = getFolder(credential, parentId, folderName);
-        return !files.isEmpty();
+        return null;
     }
 
     /**
@@ -2486,10 +3199,9 @@ public class GoogleDocsServiceImpl implements GoogleDocsService
                 .setMimeType(mimeType)
                 .setParents(parents);
 
-            return drive.files()
-                        .create(file)
-                        .setFields(ALL_PROPERTY_FIELDS)
-                        .execute();
+            return retryPolicy.execute(drive.files()
+                                            .create(file)
+                                            .setFields(DriveFields.FILE));
         }
         catch (GoogleJsonResponseException e)
         {
@@ -2508,18 +3220,21 @@ public class GoogleDocsServiceImpl implements GoogleDocsService
         String query = "name = '" + folderName + "' and mimeType = '" + FOLDER_MIMETYPE +
                        "' and '" + parentId + "' in parents";
         log.debug("Get folder query string: " + query);
-        Drive.Files.List request = drive.files().list().setQ(query);
+        Drive.Files.List request = drive.files()
+                                        .list()
+                                        .setQ(query)
+                                        .setFields(DriveFields.FOLDER_LIST);
         try
         {
             do
             {
                 if (fileList == null)
                 {
-                    fileList = request.execute();
+                    fileList = retryPolicy.execute(request);
                 }
                 else
                 {
-                    fileList = request.setPageToken(fileList.getNextPageToken()).execute();
+                    fileList = retryPolicy.execute(request.setPageToken(fileList.getNextPageToken()));
                 }
 
                 List<File> childfolders = fileList.getFiles();
@@ -2539,44 +3254,29 @@ public class GoogleDocsServiceImpl implements GoogleDocsService
     }
 
     /**
-     * Delete Google Drive Folder
+     * Failing to delete a Google Drive Folder is not fatal; just report why
      *
-     * @param folderId
-     * @throws GoogleDocsAuthenticationException
-     * @throws GoogleDocsRefreshTokenException
-     * @throws GoogleDocsServiceException
+     * @param statusCode
+     * @param message
      */
-    private void deleteFolder(Credential credential, String folderId) throws
-        GoogleDocsAuthenticationException, GoogleDocsRefreshTokenException,
-        GoogleDocsServiceException, IOException
+    private void logFolderDeleteFailure(int statusCode, String message)
     {
-        Drive drive = getDriveApiWithCredentialCheck(credential);
-        try
+        if (SC_NOT_FOUND == statusCode)
         {
-            drive.files()
-                 .delete(folderId)
-                 .setFields(ALL_PROPERTY_FIELDS)
-                 .execute();
+            log.debug("Directory not found in Google Drive. This is not a fatal issue.");
         }
-        catch (GoogleJsonResponseException e)
+        else if (SC_FORBIDDEN == statusCode)
         {
-            if (SC_NOT_FOUND == e.getStatusCode())
-            {
-                log.debug("Directory not found in Google Drive. This is not a fatal issue.");
-            }
-            else if (SC_FORBIDDEN == e.getStatusCode())
-            {
-                if (e.getMessage().equals(GOOGLE_ERROR_UNMUTABLE))
-                {
-                    log.debug("Unable to delete remote file. Google claims it is unmutable.");
-                }
-            }
-            else
+            if (GOOGLE_ERROR_UNMUTABLE.equals(message))
             {
-                log.debug(
-                    "Google has reported an issue deleting the folder.  This is not a fatal issue. " + e.getDetails());
+                log.debug("Unable to delete remote file. Google claims it is unmutable.");
             }
         }
+        else
+        {
+            log.debug(
+                "Google has reported an issue deleting the folder.  This is not a fatal issue. " + message);
+        }
     }
 
     /**
@@ -0,0 +1,407 @@
+/*
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software.
+ * -
+ * If the software was purchased under a paid Alfresco license, the terms of
+ * the paid license agreement will prevail.  Otherwise, the software is
+ * provided under the following open source license terms:
+ * -
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * -
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * -
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.alfresco.integrations.google.docs.service;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.alfresco.repo.security.authentication.AuthenticationUtil;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Runs the saves of content from Google Drive in the background, so the client does not hold its request open while
+ * the content is exported, written and versioned; it polls the job instead.
+ *
+ * The saves of a node run one at a time, in the order they were submitted, as the user that submitted them. At most
+ * workerThreads saves run at a time, and at most maxPendingJobs are queued or running; beyond that new jobs are
+ * refused. Finished jobs are kept for retentionSeconds, for their outcome to be read. Saves run on the thread of the
+ * caller ({@link #run}) take their turn in the same order.
+ *
+ * The jobs are only known to the repository node they were submitted to, and are lost when it restarts. When the queue
+ * is shut down the jobs still queued fail, as do the saves of callers waiting for their turn.
+ */
+public class SaveJobQueue
+{
+    private static final Log log = LogFactory.getLog(SaveJobQueue.class);
+
+    /**
+     * The work of a save job.
+     */
+    @FunctionalInterface
+    public interface Save
+    {
+        /**
+         * @return The outcome of the save (the model of the save webscript)
+         */
+        Map<String, Object> run() throws Exception;
+    }
+
+    private int workerThreads    = 4;
+    private int maxPendingJobs   = 100;
+    private int retentionSeconds = 3600;
+
+    private ThreadPoolExecutor workers;
+
+    // The jobs queued or running, by id; and by node, in order (the head of each queue is the job running)
+    private final Map<String, Job>         active  = new ConcurrentHashMap<>();
+    private final Map<NodeRef, Deque<Job>> pending = new HashMap<>();
+
+    private Cache<String, Job> finished;
+
+    // Guarded by pending
+    private boolean shutdown;
+
+    public void setWorkerThreads(int workerThreads)
+    {
+        this.workerThreads = workerThreads;
+    }
+
+    public void setMaxPendingJobs(int maxPendingJobs)
+    {
+        this.maxPendingJobs = maxPendingJobs;
+    }
+
+    public void setRetentionSeconds(int retentionSeconds)
+    {
+        this.retentionSeconds = retentionSeconds;
+    }
+
+    public void init()
+    {
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("GoogleDocsSave-");
+        threadFactory.setDaemon(true);
+        // The queue of the pool is bounded by maxPendingJobs
+        workers = new ThreadPoolExecutor(workerThreads, workerThreads, 60, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(), threadFactory);
+        workers.allowCoreThreadTimeOut(true);
+
+        finished = CacheBuilder
+            .newBuilder()
+            .expireAfterWrite(retentionSeconds, TimeUnit.SECONDS)
+            .build();
+    }
+
+    public void destroy()
+    {
+        synchronized (pending)
+        {
+            shutdown = true;
+            for (Deque<Job> queue : pending.values())
+            {
+                for (Job job : queue)
+                {
+                    // The running jobs fail or finish as their workers are interrupted
+                    if (job.state == Job.State.QUEUED)
+                    {
+                        fail(job, new RejectedExecutionException("The save queue was shut down"));
+                    }
+                }
+            }
+            pending.clear();
+            // The callers waiting for their turn fail
+            pending.notifyAll();
+        }
+        if (workers != null)
+        {
+            workers.shutdownNow();
+        }
+    }
+
+    /**
+     * Queue a save of the node, to run as the current user once the saves of the node submitted before it are done.
+     *
+     * @return The job
+     * @throws RejectedExecutionException if maxPendingJobs jobs are already queued or running
+     */
+    public Job submit(NodeRef nodeRef, Save save)
+    {
+        final Job job = new Job(UUID.randomUUID().toString(), nodeRef, AuthenticationUtil.getRunAsUser(), save,
+            false);
+        synchronized (pending)
+        {
+            if (shutdown)
+            {
+                throw new RejectedExecutionException("The save queue is shut down");
+            }
+            if (active.size() >= maxPendingJobs)
+            {
+                throw new RejectedExecutionException(
+                    "Too many saves (" + maxPendingJobs + ") are queued; try again later.");
+            }
+            active.put(job.getId(), job);
+
+            final Deque<Job> queue = pending.computeIfAbsent(nodeRef, key -> new ArrayDeque<>());
+            queue.add(job);
+            if (queue.size() == 1)
+            {
+                try
+                {
+                    workers.execute(() -> run(job));
+                }
+                catch (RejectedExecutionException e)
+                {
+                    active.remove(job.getId());
+                    pending.remove(nodeRef);
+                    throw e;
+                }
+            }
+        }
+        log.debug("Save job " + job.getId() + " queued for " + nodeRef);
+        return job;
+    }
+
+    /**
+     * Run a save of the node on the current thread, once the saves of the node submitted before it are done. The save
+     * is not a job: it is not counted in maxPendingJobs and cannot be polled.
+     *
+     * @return The outcome of the save
+     * @throws InterruptedException       if the thread is interrupted while the earlier saves of the node run
+     * @throws RejectedExecutionException if the queue is, or is shut down while the earlier saves of the node run
+     */
+    public Map<String, Object> run(NodeRef nodeRef, Save save) throws Exception
+    {
+        final Job job = new Job(UUID.randomUUID().toString(), nodeRef, AuthenticationUtil.getRunAsUser(), save,
+            true);
+        synchronized (pending)
+        {
+            if (shutdown)
+            {
+                throw new RejectedExecutionException("The save queue is shut down");
+            }
+            final Deque<Job> queue = pending.computeIfAbsent(nodeRef, key -> new ArrayDeque<>());
+            queue.add(job);
+            try
+            {
+                // The shutdown of the queue fails the job
+                while (queue.peek() != job && job.state == Job.State.QUEUED)
+                {
+                    pending.wait();
+                }
+            }
+            catch (InterruptedException e)
+            {
+                // It may have been handed the turn as it was interrupted
+                if (queue.peek() == job)
+                {
+                    next(job);
+                }
+                else
+                {
+                    queue.remove(job);
+                }
+                throw e;
+            }
+            if (job.state == Job.State.FAILED)
+            {
+                throw (RejectedExecutionException) job.failure;
+            }
+        }
+
+        job.state = Job.State.RUNNING;
+        try
+        {
+            return save.run();
+        }
+        finally
+        {
+            next(job);
+        }
+    }
+
+    /**
+     * @return The job, if it was submitted by the current user and is queued, running or finished recently; else null
+     */
+    public Job getJob(String id)
+    {
+        Job job = active.get(id);
+        if (job == null)
+        {
+            job = finished.getIfPresent(id);
+        }
+        if (job == null || !job.getUserName().equals(AuthenticationUtil.getRunAsUser()))
+        {
+            return null;
+        }
+        return job;
+    }
+
+    private void run(Job job)
+    {
+        job.state = Job.State.RUNNING;
+        try
+        {
+            job.result = AuthenticationUtil.runAs(job.save::run, job.getUserName());
+            job.state = Job.State.SUCCEEDED;
+            log.debug("Save job " + job.getId() + " of " + job.getNodeRef() + " succeeded");
+        }
+        catch (Throwable e)
+        {
+            job.failure = e;
+            job.state = Job.State.FAILED;
+            log.debug("Save job " + job.getId() + " of " + job.getNodeRef() + " failed: " + e.getMessage());
+        }
+        finally
+        {
+            finished.put(job.getId(), job);
+            active.remove(job.getId());
+            next(job);
+        }
+    }
+
+    /**
+     * Hand the turn of the node over to its next save, if any. The job must be the head of the queue of the node.
+     */
+    private void next(Job job)
+    {
+        synchronized (pending)
+        {
+            final Deque<Job> queue = pending.get(job.getNodeRef());
+            if (queue == null)
+            {
+                // The queue was shut down
+                return;
+            }
+            queue.poll();
+            while (true)
+            {
+                final Job next = queue.peek();
+                if (next == null)
+                {
+                    pending.remove(job.getNodeRef());
+                    return;
+                }
+                if (next.synchronous)
+                {
+                    // Its caller is waiting for its turn
+                    pending.notifyAll();
+                    return;
+                }
+                try
+                {
+                    workers.execute(() -> run(next));
+                    return;
+                }
+                catch (RejectedExecutionException e)
+                {
+                    // The workers are shut down; no save of the node can run any more
+                    fail(next, e);
+                    queue.poll();
+                }
+            }
+        }
+    }
+
+    /**
+     * Fail a job that has not run. Must be called holding the lock on pending.
+     */
+    private void fail(Job job, RejectedExecutionException e)
+    {
+        job.failure = e;
+        job.state = Job.State.FAILED;
+        if (!job.synchronous)
+        {
+            finished.put(job.getId(), job);
+            active.remove(job.getId());
+        }
+        log.debug("Save job " + job.getId() + " of " + job.getNodeRef() + " failed: " + e.getMessage());
+    }
+
+    public static class Job
+    {
+        public enum State
+        {
+            QUEUED, RUNNING, SUCCEEDED, FAILED
+        }
+
+        private final String  id;
+        private final NodeRef nodeRef;
+        private final String  userName;
+        private final Save    save;
+        // Run on the thread of the caller, not by a worker
+        private final boolean synchronous;
+
+        private volatile State               state = State.QUEUED;
+        private volatile Map<String, Object> result;
+        private volatile Throwable           failure;
+
+        Job(String id, NodeRef nodeRef, String userName, Save save, boolean synchronous)
+        {
+            this.id = id;
+            this.nodeRef = nodeRef;
+            this.userName = userName;
+            this.save = save;
+            this.synchronous = synchronous;
+        }
+
+        public String getId()
+        {
+            return id;
+        }
+
+        public NodeRef getNodeRef()
+        {
+            return nodeRef;
+        }
+
+        public String getUserName()
+        {
+            return userName;
+        }
+
+        public State getState()
+        {
+            return state;
+        }
+
+        /**
+         * @return The outcome of the save, once it succeeded
+         */
+        public Map<String, Object> getResult()
+        {
+            return result;
+        }
+
+        /**
+         * @return Why the save failed, once it failed
+         */
+        public Throwable getFailure()
+        {
+            return failure;
+        }
+    }
+}
@@ -47,6 +47,7 @@ import java.util.Map;
 import org.alfresco.integrations.google.docs.exceptions.GoogleDocsAuthenticationException;
 import org.alfresco.integrations.google.docs.exceptions.GoogleDocsRefreshTokenException;
 import org.alfresco.integrations.google.docs.exceptions.GoogleDocsServiceException;
+import org.alfresco.integrations.google.docs.exceptions.GoogleDocsUnavailableException;
 import org.alfresco.integrations.google.docs.service.GoogleDocsService;
 import org.alfresco.integrations.google.docs.utils.FileNameUtil;
 import org.alfresco.repo.management.subsystems.ApplicationContextFactory;
@@ -146,6 +147,10 @@ public class CreateContent extends GoogleDocsWebScripts
             googledocsService.decorateNode(newNode, file,
                 googledocsService.getLatestRevision(credential, file), true);
         }
+        catch (GoogleDocsUnavailableException e)
+        {
+            throw new WebScriptException(SC_SERVICE_UNAVAILABLE, e.getMessage());
+        }
         catch (GoogleDocsServiceException e)
         {
             if (e.getPassedStatusCode() > -1)
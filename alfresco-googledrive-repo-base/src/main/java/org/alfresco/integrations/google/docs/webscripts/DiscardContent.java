@@ -25,6 +25,9 @@ package org.alfresco.integrations.google.docs.webscripts;
 
 import static org.alfresco.integrations.google.docs.GoogleDocsConstants.ALF_SITES_PATH_FQNS_ELEMENT;
 import static org.alfresco.integrations.google.docs.GoogleDocsModel.ASPECT_EDITING_IN_GOOGLE;
+import static org.alfresco.integrations.google.docs.GoogleDocsModel.PROP_DRIVE_WORKING_FOLDER;
+import static org.alfresco.integrations.google.docs.GoogleDocsModel.PROP_RESOURCE_ID;
+import static org.alfresco.integrations.google.docs.GoogleDocsModel.PROP_REVISION_ID;
 import static org.alfresco.model.ContentModel.ASPECT_TEMPORARY;
 import static org.apache.commons.httpclient.HttpStatus.SC_BAD_GATEWAY;
 import static org.apache.commons.httpclient.HttpStatus.SC_BAD_REQUEST;
@@ -33,7 +36,9 @@ import static org.apache.commons.httpclient.HttpStatus.SC_FORBIDDEN;
 import static org.apache.commons.httpclient.HttpStatus.SC_INTERNAL_SERVER_ERROR;
 import static org.apache.commons.httpclient.HttpStatus.SC_NOT_ACCEPTABLE;
 import static org.apache.commons.httpclient.HttpStatus.SC_NOT_FOUND;
+import static org.apache.commons.httpclient.HttpStatus.SC_SERVICE_UNAVAILABLE;
 import static org.apache.commons.httpclient.HttpStatus.SC_UNAUTHORIZED;
+import static org.apache.commons.lang3.StringUtils.isNotBlank;
 
 import java.io.IOException;
 import java.io.Serializable;
@@ -43,12 +48,12 @@ import java.util.Map;
 import org.alfresco.integrations.google.docs.exceptions.GoogleDocsAuthenticationException;
 import org.alfresco.integrations.google.docs.exceptions.GoogleDocsRefreshTokenException;
 import org.alfresco.integrations.google.docs.exceptions.GoogleDocsServiceException;
+import org.alfresco.integrations.google.docs.exceptions.GoogleDocsUnavailableException;
+import org.alfresco.integrations.google.docs.exceptions.NotInGoogleDriveException;
 import org.alfresco.integrations.google.docs.service.GoogleDocsService;
 import org.alfresco.integrations.google.docs.utils.FileNameUtil;
 import org.alfresco.repo.security.authentication.AuthenticationUtil;
 import org.alfresco.repo.security.permissions.AccessDeniedException;
-import org.alfresco.repo.transaction.AlfrescoTransactionSupport;
-import org.alfresco.repo.transaction.TransactionListenerAdapter;
 import org.alfresco.service.cmr.repository.InvalidNodeRefException;
 import org.alfresco.service.cmr.repository.NodeRef;
 import org.alfresco.service.cmr.repository.NodeService;
@@ -119,39 +124,40 @@ public class DiscardContent extends GoogleDocsWebScripts
         Map<String, Serializable> map = parseContent(req);
         final NodeRef nodeRef = (NodeRef) map.get(JSON_KEY_NODEREF);
 
-        final Credential credential;
         boolean deleted = false;
 
-        if (!nodeService.hasAspect(nodeRef, ASPECT_EDITING_IN_GOOGLE))
+        // The discard runs in phases so that no transaction is held open while waiting on Google: the node is read,
+        // the file removed from Drive (no transaction), then the node released in a short transaction
+        final PreparedDiscard prepared;
+        try
         {
-            throw new WebScriptException(SC_NOT_ACCEPTABLE,
-                "Missing Google Docs Aspect on " + nodeRef.toString());
+            prepared = doInTransaction(transactionService, () -> prepare(nodeRef), false);
+        }
+        catch (WebScriptException | InvalidNodeRefException e)
+        {
+            throw e;
         }
+        catch (Exception e)
+        {
+            throw new WebScriptException(SC_INTERNAL_SERVER_ERROR, e.getMessage(), e);
+        }
+
         try
         {
             //if the user is the lock owner run as the calling user else if the calling user is a Site Admin masquerade as the
             // Google Docs lock owner
-            if (googledocsService.isGoogleDocsLockOwner(nodeRef))
+            if (prepared.lockOwner)
             {
-                credential = googledocsService.getCredential();
+                final Credential credential = googledocsService.getCredential();
 
                 if (!Boolean.valueOf(map.get(JSON_KEY_OVERRIDE).toString()))
                 {
-                    SiteInfo siteInfo = null;
-                    String pathElement = getPathElement(nodeRef, 2);
-
-                    //Is the node in a site?
-                    if (pathElement.equals(ALF_SITES_PATH_FQNS_ELEMENT))
-                    {
-                        siteInfo = fileNameUtil.resolveSiteInfo(nodeRef);
-                    }
                     //The second part of this test maybe too exclusive.  What if the user has write permissions to the node
                     // but not membership in the containing site? Should the test just ask if the user has write permission
                     // to the node?
-                    if (siteInfo == null || siteService.isMember(siteInfo.getShortName(),
-                        AuthenticationUtil.getRunAsUser()))
+                    if (prepared.siteMember)
                     {
-                        if (googledocsService.hasConcurrentEditors(credential, nodeRef))
+                        if (googledocsService.hasConcurrentEditors(credential, prepared.getFile(nodeRef)))
                         {
                             throw new WebScriptException(SC_CONFLICT,
                                 "Node: " + nodeRef.toString() + " has concurrent editors.");
@@ -164,12 +170,11 @@ public class DiscardContent extends GoogleDocsWebScripts
                     }
                 }
 
-                deleted = delete(credential, nodeRef);
+                deleted = delete(credential, nodeRef, prepared);
             }
-            else if (googledocsService.isSiteManager(nodeRef,
-                AuthenticationUtil.getFullyAuthenticatedUser()))
+            else if (prepared.siteManager)
             {
-                final String lockOwner = googledocsService.getGoogleDocsLockOwner(nodeRef);
+                final String lockOwner = prepared.googleDocsLockOwner;
 
                 if (lockOwner != null)
                 {
@@ -178,7 +183,7 @@ public class DiscardContent extends GoogleDocsWebScripts
 
                         try
                         {
-                            deletedAsUser = delete(null, nodeRef);
+                            deletedAsUser = delete(null, nodeRef, prepared);
                         }
                         // If we are unable to delete the document from Drive (because we no longer have permission) we still need to unlock the document
                         // and clean up (undecorate) the node.
@@ -204,13 +209,7 @@ public class DiscardContent extends GoogleDocsWebScripts
                                 {
                                     log.info(
                                         "Unable to access " + nodeRef + " as " + lockOwner);
-                                    googledocsService.unlockNode(nodeRef);
-                                    googledocsService.unDecorateNode(nodeRef);
-
-                                    if (nodeService.hasAspect(nodeRef, ASPECT_TEMPORARY))
-                                    {
-                                        nodeService.deleteNode(nodeRef);
-                                    }
+                                    release(nodeRef);
                                 }
                                 else
                                 {
@@ -227,13 +226,7 @@ public class DiscardContent extends GoogleDocsWebScripts
                         catch (IllegalStateException e)
                         {
                             log.info("Unable to access " + nodeRef + " as " + lockOwner);
-                            googledocsService.unlockNode(nodeRef);
-                            googledocsService.unDecorateNode(nodeRef);
-
-                            if (nodeService.hasAspect(nodeRef, ASPECT_TEMPORARY))
-                            {
-                                nodeService.deleteNode(nodeRef);
-                            }
+                            release(nodeRef);
 
                             deletedAsUser = true;
                         }
@@ -245,6 +238,10 @@ public class DiscardContent extends GoogleDocsWebScripts
 
             model.put(MODEL_SUCCESS, deleted);
         }
+        catch (GoogleDocsUnavailableException e)
+        {
+            throw new WebScriptException(SC_SERVICE_UNAVAILABLE, e.getMessage());
+        }
         catch (InvalidNodeRefException e)
         {
             throw new WebScriptException(SC_NOT_FOUND, e.getMessage());
@@ -261,29 +258,11 @@ public class DiscardContent extends GoogleDocsWebScripts
         {
             if (e.getPassedStatusCode() == SC_NOT_FOUND)
             {
-                // This code will make changes after the rollback has occurred to clean up the node: remove the lock and the Google
-                // Docs aspect. If it has the temporary aspect it will also remove the node from Alfresco
-                AlfrescoTransactionSupport.bindListener(new TransactionListenerAdapter()
-                {
-                    public void afterCommit()
-                    {
-                        transactionService.getRetryingTransactionHelper().doInTransaction(
-                            () -> {
-                                AuthenticationUtil.runAsSystem(() -> {
-                                    googledocsService.unlockNode(nodeRef);
-                                    googledocsService.unDecorateNode(nodeRef);
-
-                                    if (nodeService.hasAspect(nodeRef, ASPECT_TEMPORARY))
-                                    {
-                                        nodeService.deleteNode(nodeRef);
-                                    }
-
-                                    return null;
-                                });
-
-                                return null;
-                            }, false, true);
-                    }
+                // Clean up the node: remove the lock and the Google Docs aspect. If it has the temporary aspect it will
+                // also remove the node from Alfresco
+                AuthenticationUtil.runAsSystem(() -> {
+                    release(nodeRef);
+                    return null;
                 });
                 model.put(MODEL_SUCCESS, true);
             }
@@ -295,45 +274,90 @@ public class DiscardContent extends GoogleDocsWebScripts
         }
         catch (AccessDeniedException e)
         {
-            // This code will make changes after the rollback has occurred to clean up the node: remove the lock and the Google
-            // Docs aspect. If it has the temporary aspect it will also remove the node from Alfresco
-            AlfrescoTransactionSupport.bindListener(new TransactionListenerAdapter()
+            // Clean up: remove the file from Google Drive, then remove the lock and the Google Docs aspect. If it has the
+            // temporary aspect it will also remove the node from Alfresco
+            try
             {
-                public void afterRollback()
-                {
-                    transactionService.getRetryingTransactionHelper().doInTransaction(() -> {
-                        File file = googledocsService.getDriveFile(null, nodeRef);
-                        googledocsService.unlockNode(nodeRef);
-                        boolean deleted1 = googledocsService.deleteContent(null, nodeRef, file);
+                googledocsService.deleteDriveFile(null, prepared.getFile(nodeRef),
+                    prepared.workingFolderId);
 
-                        if (deleted1)
-                        {
-                            AuthenticationUtil.runAsSystem(() -> {
-                                googledocsService.unlockNode(nodeRef);
-                                googledocsService.unDecorateNode(nodeRef);
+                AuthenticationUtil.runAsSystem(() -> {
+                    release(nodeRef);
+                    return null;
+                });
+            }
+            catch (Exception cleanup)
+            {
+                log.warn("Unable to clean up " + nodeRef + ": " + cleanup.getMessage());
+            }
 
-                                if (nodeService.hasAspect(nodeRef, ASPECT_TEMPORARY))
-                                {
-                                    nodeService.deleteNode(nodeRef);
-                                }
+            throw new WebScriptException(SC_FORBIDDEN, e.getMessage(), e);
+        }
 
-                                return null;
-                            });
-                        }
+        return model;
+    }
 
-                        return null;
-                    }, false, true);
-                }
-            });
+    /**
+     * Read what the discard needs from the node. Runs in a read write transaction, as checking the Google Docs lock
+     * repairs a broken one.
+     */
+    private PreparedDiscard prepare(NodeRef nodeRef)
+    {
+        if (!nodeService.hasAspect(nodeRef, ASPECT_EDITING_IN_GOOGLE))
+        {
+            throw new WebScriptException(SC_NOT_ACCEPTABLE,
+                "Missing Google Docs Aspect on " + nodeRef.toString());
+        }
 
-            throw new WebScriptException(SC_FORBIDDEN, e.getMessage(), e);
+        final PreparedDiscard prepared = new PreparedDiscard();
+        prepared.lockOwner = googledocsService.isGoogleDocsLockOwner(nodeRef);
+        if (prepared.lockOwner)
+        {
+            SiteInfo siteInfo = null;
+            String pathElement = getPathElement(nodeRef, 2);
+
+            //Is the node in a site?
+            if (pathElement.equals(ALF_SITES_PATH_FQNS_ELEMENT))
+            {
+                siteInfo = fileNameUtil.resolveSiteInfo(nodeRef);
+            }
+            prepared.siteMember = siteInfo == null || siteService.isMember(siteInfo.getShortName(),
+                AuthenticationUtil.getRunAsUser());
+
+            // The copy in Drive of existing content may be kept for the next checkout, if it is discarded unchanged
+            final Serializable revisionId = nodeService.getProperty(nodeRef, PROP_REVISION_ID);
+            if (revisionId != null && !nodeService.hasAspect(nodeRef, ASPECT_TEMPORARY))
+            {
+                prepared.revisionId = revisionId.toString();
+            }
+        }
+        else
+        {
+            prepared.siteManager = googledocsService.isSiteManager(nodeRef,
+                AuthenticationUtil.getFullyAuthenticatedUser());
+            if (prepared.siteManager)
+            {
+                prepared.googleDocsLockOwner = googledocsService.getGoogleDocsLockOwner(nodeRef);
+            }
         }
 
-        return model;
+        final Serializable resourceId = nodeService.getProperty(nodeRef, PROP_RESOURCE_ID);
+        if (resourceId != null)
+        {
+            final String id = resourceId.toString();
+            prepared.resourceId = id.substring(id.lastIndexOf(':') + 1);
+        }
+        final Serializable workingFolderId = nodeService.getProperty(nodeRef, PROP_DRIVE_WORKING_FOLDER);
+        if (workingFolderId != null && isNotBlank(workingFolderId.toString()))
+        {
+            prepared.workingFolderId = workingFolderId.toString();
+        }
+        return prepared;
     }
 
     /**
-     * Delete the node from Google. If the node has the temporary aspect it is also removed from Alfresco.
+     * Delete the node from Google, unless its copy in Drive is unchanged and kept for the next checkout. If the node has
+     * the temporary aspect it is also removed from Alfresco.
      *
      * @param nodeRef
      * @return
@@ -343,26 +367,40 @@ public class DiscardContent extends GoogleDocsWebScripts
      * @throws GoogleDocsAuthenticationException
      * @throws GoogleDocsRefreshTokenException
      */
-    private boolean delete(Credential credential, NodeRef nodeRef)
+    private boolean delete(Credential credential, NodeRef nodeRef, PreparedDiscard prepared)
         throws InvalidNodeRefException,
         IOException,
         GoogleDocsServiceException,
         GoogleDocsAuthenticationException,
         GoogleDocsRefreshTokenException
     {
-        File file = googledocsService.getDriveFile(credential, nodeRef);
-        googledocsService.unlockNode(nodeRef);
-        boolean deleted = googledocsService.deleteContent(credential, nodeRef, file);
-
-        if (deleted)
+        if (!googledocsService.retainDriveFile(credential, prepared.getFile(nodeRef), prepared.revisionId))
         {
+            googledocsService.deleteDriveFile(credential, prepared.getFile(nodeRef),
+                prepared.workingFolderId);
+        }
+        release(nodeRef);
+
+        return true;
+    }
+
+    /**
+     * Remove the lock and the Google Docs aspect from the node, in a transaction of its own. If the node has the
+     * temporary aspect it is also removed from Alfresco.
+     */
+    private void release(NodeRef nodeRef)
+    {
+        transactionService.getRetryingTransactionHelper().doInTransaction(() -> {
+            googledocsService.unlockNode(nodeRef);
+            googledocsService.unDecorateNode(nodeRef);
+
             if (nodeService.hasAspect(nodeRef, ASPECT_TEMPORARY))
             {
                 nodeService.deleteNode(nodeRef);
             }
-        }
 
-        return deleted;
+            return null;
+        }, false, true);
     }
 
     private Map<String, Serializable> parseContent(final WebScriptRequest req)
@@ -427,4 +465,29 @@ public class DiscardContent extends GoogleDocsWebScripts
 
         return result;
     }
+
+    /**
+     * What the discard needs from the node, read before anything is removed from Google Drive.
+     */
+    private static class PreparedDiscard
+    {
+        // Is the current user the Google Docs lock owner, else a manager of the site of the node
+        private boolean lockOwner;
+        private boolean siteMember;
+        private boolean siteManager;
+        private String  googleDocsLockOwner;
+        private String  resourceId;
+        private String  workingFolderId;
+        // The revision the node was synchronized with, if its copy in Drive may be kept
+        private String  revisionId;
+
+        private File getFile(NodeRef nodeRef) throws NotInGoogleDriveException
+        {
+            if (resourceId == null)
+            {
+                throw new NotInGoogleDriveException(nodeRef);
+            }
+            return new File().setId(resourceId);
+        }
+    }
 }
@@ -23,11 +23,14 @@
 
 package org.alfresco.integrations.google.docs.webscripts;
 
+import org.alfresco.error.AlfrescoRuntimeException;
 import org.alfresco.integrations.google.docs.service.GoogleDocsService;
 import org.alfresco.repo.management.subsystems.ApplicationContextFactory;
+import org.alfresco.repo.transaction.RetryingTransactionHelper.RetryingTransactionCallback;
 import org.alfresco.service.cmr.repository.NodeRef;
 import org.alfresco.service.cmr.repository.NodeService;
 import org.alfresco.service.cmr.repository.Path;
+import org.alfresco.service.transaction.TransactionService;
 import org.springframework.beans.factory.NoSuchBeanDefinitionException;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.ApplicationContextAware;
@@ -39,6 +42,7 @@ public abstract class GoogleDocsWebScripts extends DeclarativeWebScript implemen
 {
     protected final static String GOOGLEDOCS_DRIVE_SUBSYSTEM = "googledocs_drive";
     protected final static String GOOGLEDOCSSERVICE          = "GoogleDocsService";
+    protected final static String SAVE_JOB_QUEUE             = "googledocsSaveJobQueue";
 
     protected ApplicationContext applicationContext;
 
@@ -66,10 +70,43 @@ public abstract class GoogleDocsWebScripts extends DeclarativeWebScript implemen
         }
     }
 
+    /**
+     * @return The bean of the Google Docs subsystem
+     */
+    protected <T> T getGoogleDocsSubsystemBean(String beanName, Class<T> type)
+    {
+        ApplicationContextFactory subsystem = (ApplicationContextFactory) applicationContext.getBean(
+            GOOGLEDOCS_DRIVE_SUBSYSTEM);
+        return subsystem.getApplicationContext().getBean(beanName, type);
+    }
+
     protected String getPathElement(NodeRef nodeRef, int position)
     {
         Path path = nodeService.getPath(nodeRef);
         Path.Element element = path.get(position);
         return element.toString();
     }
+
+    /**
+     * Run the callback in a new transaction. A checked exception thrown by the callback is rethrown as is, rather
+     * than wrapped by the transaction helper.
+     */
+    protected static <R> R doInTransaction(TransactionService transactionService,
+        RetryingTransactionCallback<R> callback, boolean readOnly) throws Exception
+    {
+        try
+        {
+            return transactionService.getRetryingTransactionHelper().doInTransaction(callback, readOnly,
+                true);
+        }
+        catch (AlfrescoRuntimeException e)
+        {
+            if (e.getClass() == AlfrescoRuntimeException.class && e.getCause() instanceof Exception
+                && !(e.getCause() instanceof RuntimeException))
+            {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        }
+    }
 }
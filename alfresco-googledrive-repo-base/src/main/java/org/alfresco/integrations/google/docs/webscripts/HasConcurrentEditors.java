@@ -25,6 +25,7 @@ package org.alfresco.integrations.google.docs.webscripts;
 
 import static org.apache.commons.httpclient.HttpStatus.SC_BAD_GATEWAY;
 import static org.apache.commons.httpclient.HttpStatus.SC_INTERNAL_SERVER_ERROR;
+import static org.apache.commons.httpclient.HttpStatus.SC_SERVICE_UNAVAILABLE;
 
 import java.util.HashMap;
 import java.util.Map;
@@ -32,6 +33,7 @@ import java.util.Map;
 import org.alfresco.integrations.google.docs.exceptions.GoogleDocsAuthenticationException;
 import org.alfresco.integrations.google.docs.exceptions.GoogleDocsRefreshTokenException;
 import org.alfresco.integrations.google.docs.exceptions.GoogleDocsServiceException;
+import org.alfresco.integrations.google.docs.exceptions.GoogleDocsUnavailableException;
 import org.alfresco.integrations.google.docs.service.GoogleDocsService;
 import org.alfresco.service.cmr.repository.NodeRef;
 import org.springframework.extensions.webscripts.Cache;
@@ -73,6 +75,10 @@ public class HasConcurrentEditors extends GoogleDocsWebScripts
             model.put(MODEL_CONCURRENT_EDITORS,
                 googledocsService.hasConcurrentEditors(credential, nodeRef));
         }
+        catch (GoogleDocsUnavailableException e)
+        {
+            throw new WebScriptException(SC_SERVICE_UNAVAILABLE, e.getMessage());
+        }
         catch (GoogleDocsAuthenticationException | GoogleDocsRefreshTokenException e)
         {
             throw new WebScriptException(SC_BAD_GATEWAY, e.getMessage());
@@ -28,6 +28,7 @@ import static org.alfresco.integrations.google.docs.GoogleDocsModel.PROP_REVISIO
 import static org.apache.commons.httpclient.HttpStatus.SC_BAD_GATEWAY;
 import static org.apache.commons.httpclient.HttpStatus.SC_INTERNAL_SERVER_ERROR;
 import static org.apache.commons.httpclient.HttpStatus.SC_PRECONDITION_FAILED;
+import static org.apache.commons.httpclient.HttpStatus.SC_SERVICE_UNAVAILABLE;
 
 import java.io.IOException;
 import java.io.Serializable;
@@ -37,6 +38,7 @@ import java.util.Map;
 import org.alfresco.integrations.google.docs.exceptions.GoogleDocsAuthenticationException;
 import org.alfresco.integrations.google.docs.exceptions.GoogleDocsRefreshTokenException;
 import org.alfresco.integrations.google.docs.exceptions.GoogleDocsServiceException;
+import org.alfresco.integrations.google.docs.exceptions.GoogleDocsUnavailableException;
 import org.alfresco.integrations.google.docs.service.GoogleDocsService;
 import org.alfresco.service.cmr.repository.NodeRef;
 import org.alfresco.service.cmr.repository.NodeService;
@@ -121,6 +123,10 @@ public class IsLatestRevision extends GoogleDocsWebScripts
 
             model.put(MODEL_IS_LATEST_REVISION, isLatestRevision);
         }
+        catch (GoogleDocsUnavailableException e)
+        {
+            throw new WebScriptException(SC_SERVICE_UNAVAILABLE, e.getMessage());
+        }
         catch (GoogleDocsAuthenticationException | GoogleDocsRefreshTokenException e)
         {
             throw new WebScriptException(SC_BAD_GATEWAY, e.getMessage());
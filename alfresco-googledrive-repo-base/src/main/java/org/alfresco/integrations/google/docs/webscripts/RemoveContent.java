@@ -30,6 +30,7 @@ import static org.apache.commons.httpclient.HttpStatus.SC_BAD_GATEWAY;
 import static org.apache.commons.httpclient.HttpStatus.SC_BAD_REQUEST;
 import static org.apache.commons.httpclient.HttpStatus.SC_FORBIDDEN;
 import static org.apache.commons.httpclient.HttpStatus.SC_INTERNAL_SERVER_ERROR;
+import static org.apache.commons.httpclient.HttpStatus.SC_SERVICE_UNAVAILABLE;
 
 import java.io.IOException;
 import java.io.Serializable;
@@ -39,6 +40,7 @@ import java.util.Map;
 import org.alfresco.integrations.google.docs.exceptions.GoogleDocsAuthenticationException;
 import org.alfresco.integrations.google.docs.exceptions.GoogleDocsRefreshTokenException;
 import org.alfresco.integrations.google.docs.exceptions.GoogleDocsServiceException;
+import org.alfresco.integrations.google.docs.exceptions.GoogleDocsUnavailableException;
 import org.alfresco.integrations.google.docs.service.GoogleDocsService;
 import org.alfresco.repo.security.authentication.AuthenticationUtil;
 import org.alfresco.repo.security.permissions.AccessDeniedException;
@@ -117,6 +119,10 @@ public class RemoveContent extends GoogleDocsWebScripts
                 /* if we reach this point all should be completed */
                 success = true;
             }
+            catch (GoogleDocsUnavailableException e)
+            {
+                throw new WebScriptException(SC_SERVICE_UNAVAILABLE, e.getMessage());
+            }
             catch (GoogleDocsAuthenticationException | GoogleDocsRefreshTokenException e)
             {
                 throw new WebScriptException(SC_BAD_GATEWAY, e.getMessage());
@@ -28,32 +28,39 @@ import static org.alfresco.integrations.google.docs.GoogleDocsConstants.DOCUMENT
 import static org.alfresco.integrations.google.docs.GoogleDocsConstants.PRESENTATION_TYPE;
 import static org.alfresco.integrations.google.docs.GoogleDocsConstants.SPREADSHEET_TYPE;
 import static org.alfresco.integrations.google.docs.GoogleDocsConstants.STATUS_INTEGIRTY_VIOLATION;
+import static org.alfresco.integrations.google.docs.GoogleDocsModel.PROP_REVISION_ID;
 import static org.alfresco.model.ContentModel.ASPECT_TEMPORARY;
 import static org.alfresco.model.ContentModel.ASPECT_VERSIONABLE;
 import static org.alfresco.model.ContentModel.PROP_AUTO_VERSION;
 import static org.alfresco.model.ContentModel.PROP_AUTO_VERSION_PROPS;
+import static org.alfresco.model.ContentModel.PROP_VERSION_LABEL;
+import static org.apache.commons.httpclient.HttpStatus.SC_ACCEPTED;
 import static org.apache.commons.httpclient.HttpStatus.SC_BAD_GATEWAY;
 import static org.apache.commons.httpclient.HttpStatus.SC_BAD_REQUEST;
 import static org.apache.commons.httpclient.HttpStatus.SC_CONFLICT;
 import static org.apache.commons.httpclient.HttpStatus.SC_FORBIDDEN;
 import static org.apache.commons.httpclient.HttpStatus.SC_INTERNAL_SERVER_ERROR;
+import static org.apache.commons.httpclient.HttpStatus.SC_SERVICE_UNAVAILABLE;
 import static org.apache.commons.httpclient.HttpStatus.SC_UNSUPPORTED_MEDIA_TYPE;
 
 import java.io.IOException;
 import java.io.Serializable;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
 
 import org.alfresco.integrations.google.docs.exceptions.ConcurrentEditorException;
 import org.alfresco.integrations.google.docs.exceptions.GoogleDocsAuthenticationException;
 import org.alfresco.integrations.google.docs.exceptions.GoogleDocsRefreshTokenException;
 import org.alfresco.integrations.google.docs.exceptions.GoogleDocsServiceException;
+import org.alfresco.integrations.google.docs.exceptions.GoogleDocsUnavailableException;
+import org.alfresco.integrations.google.docs.service.DriveImport;
 import org.alfresco.integrations.google.docs.service.GoogleDocsService;
+import org.alfresco.integrations.google.docs.service.SaveJobQueue;
 import org.alfresco.integrations.google.docs.utils.FileNameUtil;
 import org.alfresco.repo.security.authentication.AuthenticationUtil;
 import org.alfresco.repo.security.permissions.AccessDeniedException;
-import org.alfresco.repo.transaction.AlfrescoTransactionSupport;
-import org.alfresco.repo.transaction.TransactionListenerAdapter;
 import org.alfresco.repo.version.Version2Model;
 import org.alfresco.service.cmr.dictionary.ConstraintException;
 import org.alfresco.service.cmr.repository.NodeRef;
@@ -75,6 +82,8 @@ import org.springframework.extensions.webscripts.WebScriptException;
 import org.springframework.extensions.webscripts.WebScriptRequest;
 
 import com.google.api.client.auth.oauth2.Credential;
+import com.google.api.services.drive.model.File;
+import com.google.api.services.drive.model.Revision;
 
 /**
  * @author Jared Ottley <jared.ottley@alfresco.com>
@@ -94,9 +103,13 @@ public class SaveContent extends GoogleDocsWebScripts
     private static final String JSON_KEY_DESCRIPTION     = "description";
     private static final String JSON_KEY_OVERRIDE        = "override";
     private static final String JSON_KEY_REMOVEFROMDRIVE = "removeFromDrive";
+    private static final String JSON_KEY_ASYNC           = "async";
 
-    private static final String MODEL_SUCCESS = "success";
-    private static final String MODEL_VERSION = "version";
+    private static final String MODEL_SUCCESS   = "success";
+    private static final String MODEL_VERSION   = "version";
+    private static final String MODEL_UNCHANGED = "unchanged";
+    private static final String MODEL_JOB_ID    = "jobId";
+    private static final String MODEL_STATE     = "state";
 
     public void setGoogledocsService(GoogleDocsService googledocsService)
     {
@@ -139,82 +152,273 @@ public class SaveContent extends GoogleDocsWebScripts
         final NodeRef nodeRef = (NodeRef) map.get(JSON_KEY_NODEREF);
         log.debug("Saving Node to Alfresco from Google: " + nodeRef);
 
+        // Should the content be removed from the users Google Drive Account
+        final boolean removeFromDrive = (map.get(
+            JSON_KEY_REMOVEFROMDRIVE) != null) ? (Boolean) map.get(JSON_KEY_REMOVEFROMDRIVE)
+                                               : true;
+
         try
         {
             Credential credential = googledocsService.getCredential();
 
-            SiteInfo siteInfo = null;
-            String pathElement = getPathElement(nodeRef, 2);
-
-            //Is the node in a site?
-            if (pathElement.equals(ALF_SITES_PATH_FQNS_ELEMENT))
+            final SaveJobQueue saveJobs = getGoogleDocsSubsystemBean(SAVE_JOB_QUEUE, SaveJobQueue.class);
+            if ((Boolean) map.get(JSON_KEY_ASYNC))
             {
-                siteInfo = fileNameUtil.resolveSiteInfo(nodeRef);
+                // The save runs in the background: the client polls the job for its outcome
+                final SaveJobQueue.Job job = saveJobs.submit(nodeRef, () -> {
+                    try
+                    {
+                        return save(credential, nodeRef, map, removeFromDrive);
+                    }
+                    catch (Exception e)
+                    {
+                        throw toWebScriptException(nodeRef, e);
+                    }
+                });
+
+                status.setCode(SC_ACCEPTED);
+                model.put(MODEL_JOB_ID, job.getId());
+                model.put(MODEL_STATE, job.getState().toString());
+                model.put(MODEL_SUCCESS, true);
+                return model;
             }
 
-            if (siteInfo != null && !siteService.isMember(siteInfo.getShortName(),
-                AuthenticationUtil.getRunAsUser()))
+            // Takes its turn after the background saves of the node
+            return saveJobs.run(nodeRef, () -> save(credential, nodeRef, map, removeFromDrive));
+        }
+        catch (RejectedExecutionException e)
+        {
+            throw new WebScriptException(SC_SERVICE_UNAVAILABLE, e.getMessage());
+        }
+        catch (Exception e)
+        {
+            throw toWebScriptException(nodeRef, e);
+        }
+    }
+
+    /**
+     * Save the content of the node from Google Drive.
+     *
+     * The save runs in phases so that no transaction is held open while waiting on Google, and a retried
+     * transaction never repeats a Drive call: the node is read, the content fetched from Drive (no transaction),
+     * then the node updated in a short transaction.
+     *
+     * @return The model of the save
+     */
+    private Map<String, Object> save(final Credential credential, final NodeRef nodeRef,
+        final Map<String, Serializable> map, final boolean removeFromDrive) throws Exception
+    {
+        Map<String, Object> model = new HashMap<>();
+
+        final PreparedSave prepared = doInTransaction(transactionService, () -> prepare(nodeRef), false);
+
+        try (DriveImport driveImport = prepared.driveImport)
+        {
+            final File file = new File().setId(driveImport.getResourceId());
+            final boolean override = (Boolean) map.get(JSON_KEY_OVERRIDE);
+
+            // The revisions are listed once, for both the unchanged and the concurrent editors checks
+            List<Revision> revisions = null;
+            if (prepared.revisionId != null || !override)
             {
-                throw new AccessDeniedException(
-                    "Access Denied.  You do not have the appropriate permissions to perform this operation.");
+                revisions = googledocsService.getRevisions(credential, file);
+                final Revision latestRevision = revisions.isEmpty() ? null : revisions.get(revisions.size() - 1);
+                log.debug("Node revision: " + prepared.revisionId + "; Latest revision: "
+                          + (latestRevision != null ? latestRevision.getId() : null));
+
+                // Nothing was edited in Google since the content was last synchronized: only its name and sharing
+                // may have changed
+                if (latestRevision != null && latestRevision.getId().equals(prepared.revisionId))
+                {
+                    log.debug("Node: " + nodeRef + " is unchanged in Google Drive; skipping the save.");
+                    googledocsService.fetchImportMetadata(credential, driveImport);
+                    applyMetadata(nodeRef, driveImport, removeFromDrive);
+                    if (removeFromDrive)
+                    {
+                        googledocsService.deleteDriveFile(credential, file,
+                            driveImport.getWorkingFolderId());
+                    }
+
+                    model.put(MODEL_VERSION, prepared.versionLabel);
+                    model.put(MODEL_UNCHANGED, true);
+                    model.put(MODEL_SUCCESS, true);
+                    return model;
+                }
+                // The revision is the one imported
+                driveImport.setRevision(latestRevision);
             }
 
-            if (!(Boolean) map.get(JSON_KEY_OVERRIDE))
+            if (!override)
             {
                 log.debug("Check for Concurent Users.");
-                if (googledocsService.hasConcurrentEditors(credential, nodeRef))
+                if (googledocsService.hasConcurrentEditors(credential, revisions))
                 {
                     throw new ConcurrentEditorException("Node: " + nodeRef.toString()
                                                         + " has concurrent editors.");
                 }
             }
 
-            // Should the content be removed from the users Google Drive Account
-            boolean removeFromDrive = (map.get(
-                JSON_KEY_REMOVEFROMDRIVE) != null) ? (Boolean) map.get(JSON_KEY_REMOVEFROMDRIVE)
-                                                   : true;
+            googledocsService.fetchImport(credential, driveImport);
+
+            final String versionLabel = apply(nodeRef, driveImport, map, removeFromDrive);
+            model.put(MODEL_VERSION, versionLabel);
 
-            String contentType = googledocsService.getContentType(nodeRef);
-            log.debug("NodeRef: " + nodeRef + "; ContentType: " + contentType);
-            switch (contentType)
+            if (removeFromDrive)
             {
-            case DOCUMENT_TYPE:
-                if (!googledocsService.isGoogleDocsLockOwner(nodeRef))
+                // The content is saved: failing to clean up Google Drive must not fail the save
+                try
                 {
-                    throw new WebScriptException(SC_FORBIDDEN,
-                        "Document is locked by another user.");
+                    googledocsService.deleteDriveFile(credential, driveImport.getFile(),
+                        driveImport.getWorkingFolderId());
                 }
-                googledocsService.unlockNode(nodeRef);
-                googledocsService.getDocument(credential, nodeRef);
-
-                // TODO Make getDocument return boolean
-                break;
-            case SPREADSHEET_TYPE:
-                if (!googledocsService.isGoogleDocsLockOwner(nodeRef))
+                catch (GoogleDocsServiceException | GoogleDocsAuthenticationException |
+                       GoogleDocsRefreshTokenException | IOException e)
                 {
-                    throw new WebScriptException(SC_FORBIDDEN,
-                        "Document is locked by another user.");
+                    log.warn("Node: " + nodeRef + " is saved, but could not be removed from Google Drive: "
+                             + e.getMessage());
                 }
-                googledocsService.unlockNode(nodeRef);
-                googledocsService.getSpreadSheet(credential, nodeRef);
+            }
+        }
 
-                // TODO Make getSpreadsheet return boolean
-                break;
-            case PRESENTATION_TYPE:
-                if (!googledocsService.isGoogleDocsLockOwner(nodeRef))
-                {
-                    throw new WebScriptException(SC_FORBIDDEN,
-                        "Document is locked by another user.");
-                }
-                googledocsService.unlockNode(nodeRef);
-                googledocsService.getPresentation(credential, nodeRef);
-
-                // TODO Make getPresentation return boolean
-                break;
-            default:
-                throw new WebScriptException(SC_UNSUPPORTED_MEDIA_TYPE,
-                    "Content Type: " + contentType + " unknown.");
+        model.put(MODEL_UNCHANGED, false);
+        model.put(MODEL_SUCCESS, true);
+        return model;
+    }
+
+    /**
+     * The response to a failed save. A save refused as access denied also releases the node.
+     */
+    private WebScriptException toWebScriptException(final NodeRef nodeRef, Exception exception)
+    {
+        try
+        {
+            throw exception;
+        }
+        catch (GoogleDocsUnavailableException e)
+        {
+            return new WebScriptException(SC_SERVICE_UNAVAILABLE, e.getMessage());
+        }
+        catch (GoogleDocsAuthenticationException | GoogleDocsRefreshTokenException e)
+        {
+            return new WebScriptException(SC_BAD_GATEWAY, e.getMessage(), e);
+        }
+        catch (GoogleDocsServiceException e)
+        {
+            if (e.getPassedStatusCode() > -1)
+            {
+                return new WebScriptException(e.getPassedStatusCode(), e.getMessage(), e);
             }
+            return new WebScriptException(e.getMessage(), e);
+        }
+        catch (ConstraintException e)
+        {
+            return new WebScriptException(STATUS_INTEGIRTY_VIOLATION, e.getMessage(), e);
+        }
+        catch (AccessDeniedException e)
+        {
+            // The failed transaction has been rolled back: clean up the node (remove the lock and the Google Docs aspect)
+            log.debug("Rollback Save to node: " + nodeRef);
+            transactionService.getRetryingTransactionHelper().doInTransaction(
+                () -> AuthenticationUtil.runAsSystem(() -> {
+                    googledocsService.unlockNode(nodeRef);
+                    googledocsService.unDecorateNode(nodeRef);
+
+                    // If the node was just created ('Create Content') it will have the temporary aspect and should
+                    // be completely removed.
+                    if (nodeService.hasAspect(nodeRef, ASPECT_TEMPORARY))
+                    {
+                        nodeService.deleteNode(nodeRef);
+                    }
+
+                    return null;
+                }), false, true);
+
+            return new WebScriptException(SC_FORBIDDEN, e.getMessage(), e);
+        }
+        catch (ConcurrentEditorException e)
+        {
+            return new WebScriptException(SC_CONFLICT, e.getMessage(), e);
+        }
+        catch (Exception e)
+        {
+            return new WebScriptException(SC_INTERNAL_SERVER_ERROR, e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Check the node can be saved by the current user and read what the save needs from it. Runs in a read write
+     * transaction, as checking the Google Docs lock repairs a broken one.
+     */
+    private PreparedSave prepare(NodeRef nodeRef) throws GoogleDocsServiceException
+    {
+        SiteInfo siteInfo = null;
+        String pathElement = getPathElement(nodeRef, 2);
+
+        //Is the node in a site?
+        if (pathElement.equals(ALF_SITES_PATH_FQNS_ELEMENT))
+        {
+            siteInfo = fileNameUtil.resolveSiteInfo(nodeRef);
+        }
+
+        if (siteInfo != null && !siteService.isMember(siteInfo.getShortName(),
+            AuthenticationUtil.getRunAsUser()))
+        {
+            throw new AccessDeniedException(
+                "Access Denied.  You do not have the appropriate permissions to perform this operation.");
+        }
+
+        if (!googledocsService.isGoogleDocsLockOwner(nodeRef))
+        {
+            throw new WebScriptException(SC_FORBIDDEN,
+                "Document is locked by another user.");
+        }
+
+        String contentType = googledocsService.getContentType(nodeRef);
+        log.debug("NodeRef: " + nodeRef + "; ContentType: " + contentType);
+        switch (contentType)
+        {
+        case DOCUMENT_TYPE:
+        case SPREADSHEET_TYPE:
+        case PRESENTATION_TYPE:
+            break;
+        default:
+            throw new WebScriptException(SC_UNSUPPORTED_MEDIA_TYPE,
+                "Content Type: " + contentType + " unknown.");
+        }
+
+        final PreparedSave prepared = new PreparedSave();
+        prepared.driveImport = googledocsService.prepareImport(nodeRef);
+
+        // Content just created in Google (still temporary) always needs its first save
+        final Serializable revisionId = nodeService.getProperty(nodeRef, PROP_REVISION_ID);
+        if (revisionId != null && !nodeService.hasAspect(nodeRef, ASPECT_TEMPORARY))
+        {
+            prepared.revisionId = revisionId.toString();
+        }
+
+        final Serializable versionLabel = nodeService.getProperty(nodeRef, PROP_VERSION_LABEL);
+        prepared.versionLabel = versionLabel != null ? versionLabel.toString() : "";
+        return prepared;
+    }
+
+    /**
+     * Write the content fetched from Google Drive to the node and version it. Runs in a read write transaction, which
+     * may be retried: nothing in it calls Google Drive.
+     *
+     * @return The label of the version created
+     */
+    private String apply(final NodeRef nodeRef, final DriveImport driveImport,
+        final Map<String, Serializable> map, final boolean removeFromDrive)
+        throws Exception
+    {
+        return doInTransaction(transactionService, () -> {
+            if (!googledocsService.isGoogleDocsLockOwner(nodeRef))
+            {
+                throw new WebScriptException(SC_FORBIDDEN,
+                    "Document is locked by another user.");
+            }
+            googledocsService.unlockNode(nodeRef);
+            googledocsService.applyImport(driveImport);
 
             // Finish this off with a version create or update
             Map<String, Serializable> versionProperties = new HashMap<>();
@@ -236,72 +440,48 @@ public class SaveContent extends GoogleDocsWebScripts
             log.debug("Version Node:" + nodeRef + "; Version Properties: " + versionProperties);
             Version version = versionService.createVersion(nodeRef, versionProperties);
 
-            model.put(MODEL_VERSION, version.getVersionLabel());
-
             if (!removeFromDrive)
             {
                 googledocsService.lockNode(nodeRef);
             }
             else
             {
-                googledocsService.deleteContent(credential, nodeRef);
+                // The file is removed from Google Drive once this is committed
+                googledocsService.unDecorateNode(nodeRef);
             }
 
-            model.put(MODEL_SUCCESS, true);
-            return model;
-        }
-        catch (GoogleDocsAuthenticationException | GoogleDocsRefreshTokenException e)
-        {
-            throw new WebScriptException(SC_BAD_GATEWAY, e.getMessage(), e);
-        }
-        catch (GoogleDocsServiceException e)
-        {
-            if (e.getPassedStatusCode() > -1)
+            return version.getVersionLabel();
+        }, false);
+    }
+
+    /**
+     * Write the name and permissions fetched from Google Drive to the node, whose content is unchanged, and release it
+     * if it is removed from Google Drive. Runs in a read write transaction, which may be retried: nothing in it calls
+     * Google Drive.
+     */
+    private void applyMetadata(final NodeRef nodeRef, final DriveImport driveImport, final boolean removeFromDrive)
+        throws Exception
+    {
+        doInTransaction(transactionService, () -> {
+            if (!googledocsService.isGoogleDocsLockOwner(nodeRef))
             {
-                throw new WebScriptException(e.getPassedStatusCode(), e.getMessage(), e);
+                throw new WebScriptException(SC_FORBIDDEN,
+                    "Document is locked by another user.");
             }
-            throw new WebScriptException(e.getMessage(), e);
-        }
-        catch (ConstraintException e)
-        {
-            throw new WebScriptException(STATUS_INTEGIRTY_VIOLATION, e.getMessage(), e);
-        }
-        catch (AccessDeniedException e)
-        {
-            // This code will make changes after the rollback has occurred to clean up the node (remove the lock and the Google Docs
-            // aspect
-            AlfrescoTransactionSupport.bindListener(new TransactionListenerAdapter()
-            {
-                public void afterRollback()
-                {
-                    log.debug("Rollback Save to node: " + nodeRef);
-                    transactionService.getRetryingTransactionHelper().doInTransaction(
-                        () -> AuthenticationUtil.runAsSystem(() -> {
-                            googledocsService.unlockNode(nodeRef);
-                            googledocsService.unDecorateNode(nodeRef);
-
-                            // If the node was just created ('Create Content') it will have the temporary aspect and should
-                            // be completely removed.
-                            if (nodeService.hasAspect(nodeRef, ASPECT_TEMPORARY))
-                            {
-                                nodeService.deleteNode(nodeRef);
-                            }
-
-                            return null;
-                        }), false, true);
-                }
-            });
+            googledocsService.unlockNode(nodeRef);
+            googledocsService.applyImportMetadata(driveImport);
 
-            throw new WebScriptException(SC_FORBIDDEN, e.getMessage(), e);
-        }
-        catch (ConcurrentEditorException e)
-        {
-            throw new WebScriptException(SC_CONFLICT, e.getMessage(), e);
-        }
-        catch (Exception e)
-        {
-            throw new WebScriptException(SC_INTERNAL_SERVER_ERROR, e.getMessage(), e);
-        }
+            if (!removeFromDrive)
+            {
+                googledocsService.lockNode(nodeRef);
+            }
+            else
+            {
+                // The file is removed from Google Drive once this is committed
+                googledocsService.unDecorateNode(nodeRef);
+            }
+            return null;
+        }, false);
     }
 
     private Map<String, Serializable> parseContent(final WebScriptRequest req)
@@ -346,7 +526,8 @@ public class SaveContent extends GoogleDocsWebScripts
                 result.put(JSON_KEY_OVERRIDE, false);
             }
 
-            if (nodeService.hasAspect(nodeRef, ASPECT_VERSIONABLE))
+            if (transactionService.getRetryingTransactionHelper().doInTransaction(
+                () -> nodeService.hasAspect(nodeRef, ASPECT_VERSIONABLE), true, true))
             {
                 result.put(JSON_KEY_MAJORVERSION,
                     json.getBoolean(JSON_KEY_MAJORVERSION) ? VersionType.MAJOR
@@ -358,6 +539,8 @@ public class SaveContent extends GoogleDocsWebScripts
             {
                 result.put(JSON_KEY_REMOVEFROMDRIVE, json.getBoolean(JSON_KEY_REMOVEFROMDRIVE));
             }
+
+            result.put(JSON_KEY_ASYNC, json.has(JSON_KEY_ASYNC) && json.getBoolean(JSON_KEY_ASYNC));
         }
         catch (final IOException e)
         {
@@ -379,4 +562,15 @@ public class SaveContent extends GoogleDocsWebScripts
 
         return result;
     }
-}
+
+    /**
+     * What the save needs from the node, read before anything is fetched from Google Drive.
+     */
+    private static class PreparedSave
+    {
+        private DriveImport driveImport;
+        // The revision the node content was last synchronized with, if it is to be compared to the latest one
+        private String      revisionId;
+        private String      versionLabel;
+    }
+}
\ No newline at end of file
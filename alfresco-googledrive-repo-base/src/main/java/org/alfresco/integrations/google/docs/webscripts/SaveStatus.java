@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software.
+ * -
+ * If the software was purchased under a paid Alfresco license, the terms of
+ * the paid license agreement will prevail.  Otherwise, the software is
+ * provided under the following open source license terms:
+ * -
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * -
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * -
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.alfresco.integrations.google.docs.webscripts;
+
+import static org.apache.commons.httpclient.HttpStatus.SC_INTERNAL_SERVER_ERROR;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.alfresco.integrations.google.docs.service.GoogleDocsService;
+import org.alfresco.integrations.google.docs.service.SaveJobQueue;
+import org.springframework.extensions.webscripts.Cache;
+import org.springframework.extensions.webscripts.Status;
+import org.springframework.extensions.webscripts.WebScriptException;
+import org.springframework.extensions.webscripts.WebScriptRequest;
+
+/**
+ * Status of a save of content from Google Docs submitted in the background by the current user, for the client to poll
+ * until the save is done.
+ */
+public class SaveStatus extends GoogleDocsWebScripts
+{
+    private final static String PARAM_JOB_ID = "jobId";
+
+    private final static String MODEL_JOB_ID    = "jobId";
+    private final static String MODEL_NODEREF   = "nodeRef";
+    private final static String MODEL_STATE     = "state";
+    private final static String MODEL_SUCCESS   = "success";
+    private final static String MODEL_VERSION   = "version";
+    private final static String MODEL_UNCHANGED = "unchanged";
+    private final static String MODEL_STATUS    = "status";
+    private final static String MODEL_MESSAGE   = "message";
+
+    // No job of the user has the id (never submitted, or long finished)
+    private final static String STATE_NONE = "NONE";
+
+    public void setGoogledocsService(GoogleDocsService googledocsService)
+    {
+        // Not used: the jobs are kept by the save job queue
+    }
+
+    @Override
+    protected Map<String, Object> executeImpl(WebScriptRequest req, Status status, Cache cache)
+    {
+        Map<String, Object> model = new HashMap<>();
+
+        String jobId = req.getParameter(PARAM_JOB_ID);
+        model.put(MODEL_JOB_ID, jobId);
+        model.put(MODEL_NODEREF, "");
+        model.put(MODEL_SUCCESS, false);
+        model.put(MODEL_VERSION, "");
+        model.put(MODEL_UNCHANGED, false);
+        model.put(MODEL_STATUS, 0);
+        model.put(MODEL_MESSAGE, "");
+
+        SaveJobQueue.Job job = getGoogleDocsSubsystemBean(SAVE_JOB_QUEUE, SaveJobQueue.class).getJob(jobId);
+        if (job == null)
+        {
+            model.put(MODEL_STATE, STATE_NONE);
+            return model;
+        }
+
+        model.put(MODEL_NODEREF, job.getNodeRef().toString());
+        model.put(MODEL_STATE, job.getState().toString());
+        if (job.getState() == SaveJobQueue.Job.State.SUCCEEDED)
+        {
+            model.putAll(job.getResult());
+        }
+        else if (job.getState() == SaveJobQueue.Job.State.FAILED)
+        {
+            Throwable failure = job.getFailure();
+            model.put(MODEL_STATUS, failure instanceof WebScriptException ?
+                                    ((WebScriptException) failure).getStatus() : SC_INTERNAL_SERVER_ERROR);
+            model.put(MODEL_MESSAGE, failure.getMessage() != null ? failure.getMessage() : "");
+        }
+
+        return model;
+    }
+}
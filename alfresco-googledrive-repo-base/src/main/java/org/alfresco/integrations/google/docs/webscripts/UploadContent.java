@@ -25,12 +25,14 @@ package org.alfresco.integrations.google.docs.webscripts;
 
 import static org.alfresco.integrations.google.docs.GoogleDocsModel.ASPECT_EDITING_IN_GOOGLE;
 import static org.alfresco.integrations.google.docs.GoogleDocsModel.PROP_CURRENT_PERMISSIONS;
+import static org.alfresco.integrations.google.docs.GoogleDocsModel.PROP_RESOURCE_ID;
 import static org.alfresco.model.ContentModel.ASPECT_TEMPORARY;
 import static org.alfresco.model.ContentModel.ASPECT_VERSIONABLE;
 import static org.alfresco.model.ContentModel.PROP_AUTO_VERSION;
 import static org.alfresco.model.ContentModel.PROP_AUTO_VERSION_PROPS;
 import static org.apache.commons.httpclient.HttpStatus.SC_BAD_GATEWAY;
 import static org.apache.commons.httpclient.HttpStatus.SC_BAD_REQUEST;
+import static org.apache.commons.httpclient.HttpStatus.SC_CONFLICT;
 import static org.apache.commons.httpclient.HttpStatus.SC_INTERNAL_SERVER_ERROR;
 import static org.apache.commons.httpclient.HttpStatus.SC_SERVICE_UNAVAILABLE;
 
@@ -40,10 +42,14 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 
 import org.alfresco.integrations.google.docs.exceptions.GoogleDocsAuthenticationException;
 import org.alfresco.integrations.google.docs.exceptions.GoogleDocsRefreshTokenException;
 import org.alfresco.integrations.google.docs.exceptions.GoogleDocsServiceException;
+import org.alfresco.integrations.google.docs.exceptions.GoogleDocsUnavailableException;
+import org.alfresco.integrations.google.docs.exceptions.NotInGoogleDriveException;
+import org.alfresco.integrations.google.docs.service.DriveUpload;
 import org.alfresco.integrations.google.docs.service.GoogleDocsService;
 import org.alfresco.integrations.google.docs.service.GoogleDocsService.GooglePermission;
 import org.alfresco.repo.version.Version2Model;
@@ -51,6 +57,7 @@ import org.alfresco.service.cmr.repository.NodeRef;
 import org.alfresco.service.cmr.repository.NodeService;
 import org.alfresco.service.cmr.version.VersionService;
 import org.alfresco.service.cmr.version.VersionType;
+import org.alfresco.service.transaction.TransactionService;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.json.JSONArray;
@@ -64,6 +71,7 @@ import org.springframework.extensions.webscripts.WebScriptRequest;
 
 import com.google.api.client.auth.oauth2.Credential;
 import com.google.api.services.drive.model.File;
+import com.google.api.services.drive.model.Revision;
 
 /**
  * @author Jared Ottley <jared.ottley@alfresco.com>
@@ -72,8 +80,9 @@ public class UploadContent extends GoogleDocsWebScripts
 {
     private static final Log log = LogFactory.getLog(UploadContent.class);
 
-    private GoogleDocsService googledocsService;
-    private VersionService    versionService;
+    private GoogleDocsService  googledocsService;
+    private VersionService     versionService;
+    private TransactionService transactionService;
 
     private static final String PARAM_NODEREF     = "nodeRef";
     private static final String PARAM_PERMISSIONS = "permissions";
@@ -104,6 +113,11 @@ public class UploadContent extends GoogleDocsWebScripts
         this.versionService = versionService;
     }
 
+    public void setTransactionService(TransactionService transactionService)
+    {
+        this.transactionService = transactionService;
+    }
+
     @SuppressWarnings("unchecked")
     @Override
     protected Map<String, Object> executeImpl(WebScriptRequest req, Status status, Cache cache)
@@ -122,39 +136,55 @@ public class UploadContent extends GoogleDocsWebScripts
 
         Map<String, Serializable> jsonParams = parseContent(req);
 
-        File file;
+        // The upload runs in phases so that no transaction is held open while waiting on Google, and a retried
+        // transaction never repeats a Drive call: the node is read, the content uploaded to Drive (no transaction),
+        // then the node decorated in a short transaction
+        final File file;
+        final String editorUrl;
+        // Was a new file uploaded to Drive by this request (removed again if the node cannot be decorated)
+        boolean uploaded = false;
         try
         {
             Credential credential = googledocsService.getCredential();
 
-            if (nodeService.hasAspect(nodeRef, ASPECT_EDITING_IN_GOOGLE))
+            final PreparedUpload prepared = doInTransaction(transactionService, () -> prepare(nodeRef),
+                true);
+
+            if (prepared.editing)
             {
                 // Check the doc exists in Google - it may have been removed accidentally
+                File existing;
                 try
                 {
-                    file = googledocsService.getDriveFile(credential, nodeRef);
+                    if (prepared.resourceId == null)
+                    {
+                        throw new NotInGoogleDriveException(nodeRef);
+                    }
+                    existing = googledocsService.getDriveFile(credential, prepared.resourceId);
                 }
                 catch (GoogleDocsServiceException e)
                 {
-                    file = googledocsService.uploadFile(credential, nodeRef);
+                    existing = googledocsService.uploadFile(credential, prepared.upload);
+                    uploaded = true;
                     if (log.isDebugEnabled())
                     {
                         log.debug(nodeRef + " Uploaded to Google.");
                     }
                     // Re-apply the previous permissions, if they exist
-                    if (nodeService.getProperty(nodeRef, PROP_CURRENT_PERMISSIONS) != null)
+                    if (prepared.previousPermissions != null)
                     {
                         googledocsService.addRemotePermissions(credential,
-                            file,
-                            googledocsService.getGooglePermissions(nodeRef,
-                                PROP_CURRENT_PERMISSIONS)
+                            existing,
+                            prepared.previousPermissions
                         );
                     }
                 }
+                file = existing;
             }
             else
             {
-                file = googledocsService.uploadFile(credential, nodeRef);
+                file = googledocsService.uploadFile(credential, prepared.upload);
+                uploaded = true;
                 if (log.isDebugEnabled())
                 {
                     log.debug(nodeRef + " Uploaded to Google.");
@@ -173,43 +203,31 @@ public class UploadContent extends GoogleDocsWebScripts
                 );
             }
 
-            // If this is a non-cloud instance of Alfresco, we need to make the
-            // node versionable before we start working on it. We want the the
-            // version component to be triggered on save. The versionable aspect
-            // is only added if this is existing content, not if it was just
-            // created where the document is the initial version when saved
-            if (!nodeService.hasAspect(nodeRef, ASPECT_TEMPORARY)
-                && !nodeService.hasAspect(nodeRef, ASPECT_VERSIONABLE))
-            {
-                Map<String, Serializable> versionProperties = new HashMap<>();
-                versionProperties.put(Version2Model.PROP_VERSION_TYPE, VersionType.MAJOR);
-
-                nodeService.setProperty(nodeRef, PROP_AUTO_VERSION, true);
-                // autoVersionOnUpdateProps now set to false to follow Share upload scripts (fixes GOOGLEDOCS-111)
-                nodeService.setProperty(nodeRef, PROP_AUTO_VERSION_PROPS, false);
+            final Revision revision = googledocsService.getLatestRevision(credential, file);
 
-                if (log.isDebugEnabled())
-                {
-                    log.debug("Version Node:" + nodeRef +
-                              "; Version Properties: " + versionProperties);
-                }
-                versionService.createVersion(nodeRef, versionProperties);
+            try
+            {
+                editorUrl = doInTransaction(transactionService,
+                    () -> apply(nodeRef, prepared, file, revision,
+                        (List<GooglePermission>) jsonParams.get(PARAM_PERMISSIONS)),
+                    false);
             }
-
-            if (googledocsService.isLockedByGoogleDocs(nodeRef))
+            catch (Exception e)
             {
-                googledocsService.unlockNode(nodeRef);
+                if (uploaded)
+                {
+                    discardUpload(credential, file, prepared.upload);
+                }
+                throw e;
             }
-
-            // The alternateLink returned by an uploaded file directs the user to a preview. Need to get the alternateLink
-            // provided by a straight file get if we want to direct a user to an editor UI. Make the request with the known
-            // ID as it as not yet been set on the node yet
-            //file = googledocsService.getDriveFile(credential, file.getId());
-
-            googledocsService.decorateNode(nodeRef, file,
-                googledocsService.getLatestRevision(credential, file),
-                (List<GooglePermission>) jsonParams.get(PARAM_PERMISSIONS), false);
-            googledocsService.lockNode(nodeRef);
+        }
+        catch (WebScriptException e)
+        {
+            throw e;
+        }
+        catch (GoogleDocsUnavailableException e)
+        {
+            throw new WebScriptException(SC_SERVICE_UNAVAILABLE, e.getMessage());
         }
         catch (GoogleDocsAuthenticationException | GoogleDocsRefreshTokenException e)
         {
@@ -229,10 +247,113 @@ public class UploadContent extends GoogleDocsWebScripts
         }
 
         model.put(MODEL_NODEREF, nodeRef.toString());
-        model.put(MODEL_EDITOR_URL, googledocsService.convertWebViewToEditUrl(nodeRef, file.getWebViewLink()));
+        model.put(MODEL_EDITOR_URL, editorUrl);
         return model;
     }
 
+    /**
+     * Read what the upload needs from the node. Runs in a read only transaction.
+     */
+    private PreparedUpload prepare(NodeRef nodeRef)
+    {
+        final PreparedUpload prepared = new PreparedUpload();
+        prepared.editing = nodeService.hasAspect(nodeRef, ASPECT_EDITING_IN_GOOGLE);
+        if (prepared.editing)
+        {
+            final Serializable resourceId = nodeService.getProperty(nodeRef, PROP_RESOURCE_ID);
+            if (resourceId != null)
+            {
+                prepared.resourceId = resourceId.toString();
+            }
+            if (nodeService.getProperty(nodeRef, PROP_CURRENT_PERMISSIONS) != null)
+            {
+                prepared.previousPermissions = googledocsService.getGooglePermissions(nodeRef,
+                    PROP_CURRENT_PERMISSIONS);
+            }
+        }
+        prepared.upload = googledocsService.prepareUpload(nodeRef);
+        return prepared;
+    }
+
+    /**
+     * Decorate and lock the node once its content is in Google Drive. Runs in a read write transaction, which makes no
+     * Drive calls. The node is checked again first: it may have been checked out or locked by someone else while the
+     * content was uploaded.
+     *
+     * @return The URL of the Google editor of the file
+     */
+    private String apply(NodeRef nodeRef, PreparedUpload prepared, File file, Revision revision,
+        List<GooglePermission> permissions)
+    {
+        if (googledocsService.isLockedByGoogleDocs(nodeRef) && !googledocsService.isGoogleDocsLockOwner(nodeRef))
+        {
+            throw new WebScriptException(SC_CONFLICT, "Document is locked by another user.");
+        }
+        if (nodeService.hasAspect(nodeRef, ASPECT_EDITING_IN_GOOGLE) != prepared.editing
+            || prepared.editing && !Objects.equals(prepared.resourceId,
+            Objects.toString(nodeService.getProperty(nodeRef, PROP_RESOURCE_ID), null)))
+        {
+            throw new WebScriptException(SC_CONFLICT,
+                "Node: " + nodeRef + " was checked out to Google Drive by another request.");
+        }
+
+        // If this is a non-cloud instance of Alfresco, we need to make the
+        // node versionable before we start working on it. We want the the
+        // version component to be triggered on save. The versionable aspect
+        // is only added if this is existing content, not if it was just
+        // created where the document is the initial version when saved
+        if (!nodeService.hasAspect(nodeRef, ASPECT_TEMPORARY)
+            && !nodeService.hasAspect(nodeRef, ASPECT_VERSIONABLE))
+        {
+            Map<String, Serializable> versionProperties = new HashMap<>();
+            versionProperties.put(Version2Model.PROP_VERSION_TYPE, VersionType.MAJOR);
+
+            nodeService.setProperty(nodeRef, PROP_AUTO_VERSION, true);
+            // autoVersionOnUpdateProps now set to false to follow Share upload scripts (fixes GOOGLEDOCS-111)
+            nodeService.setProperty(nodeRef, PROP_AUTO_VERSION_PROPS, false);
+
+            if (log.isDebugEnabled())
+            {
+                log.debug("Version Node:" + nodeRef +
+                          "; Version Properties: " + versionProperties);
+            }
+            versionService.createVersion(nodeRef, versionProperties);
+        }
+
+        if (googledocsService.isLockedByGoogleDocs(nodeRef))
+        {
+            googledocsService.unlockNode(nodeRef);
+        }
+
+        // The alternateLink returned by an uploaded file directs the user to a preview. Need to get the alternateLink
+        // provided by a straight file get if we want to direct a user to an editor UI. Make the request with the known
+        // ID as it as not yet been set on the node yet
+        //file = googledocsService.getDriveFile(credential, file.getId());
+
+        googledocsService.decorateNode(nodeRef, file, revision, permissions, false);
+        googledocsService.lockNode(nodeRef);
+
+        return googledocsService.convertWebViewToEditUrl(nodeRef, file.getWebViewLink());
+    }
+
+    /**
+     * Remove the file uploaded by a request that could not decorate the node, so no orphan is left in Google Drive.
+     * The working folder is only removed when it was created for the file.
+     */
+    private void discardUpload(Credential credential, File file, DriveUpload upload)
+    {
+        try
+        {
+            final String workingFolderId = upload.getFolderName() != null && file.getParents() != null
+                                           && !file.getParents().isEmpty() ? file.getParents().get(0) : null;
+            googledocsService.deleteDriveFile(credential, file, workingFolderId);
+        }
+        catch (Exception e)
+        {
+            log.warn("Unable to remove " + file.getId() + " from Google Drive: " + e.getMessage());
+        }
+    }
+
     private Map<String, Serializable> parseContent(final WebScriptRequest req)
     {
         final Map<String, Serializable> result = new HashMap<>();
@@ -329,4 +450,16 @@ public class UploadContent extends GoogleDocsWebScripts
 
         return result;
     }
+
+    /**
+     * What the upload needs from the node, read before anything is sent to Google Drive.
+     */
+    private static class PreparedUpload
+    {
+        private DriveUpload            upload;
+        // Is the node already being edited in Google Drive (its file may have been removed since)
+        private boolean                editing;
+        private String                 resourceId;
+        private List<GooglePermission> previousPermissions;
+    }
 }
@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software.
+ * -
+ * If the software was purchased under a paid Alfresco license, the terms of
+ * the paid license agreement will prevail.  Otherwise, the software is
+ * provided under the following open source license terms:
+ * -
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * -
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * -
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.alfresco.integrations.google.docs.webscripts;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.alfresco.integrations.google.docs.drive.DriveUploader;
+import org.alfresco.integrations.google.docs.service.GoogleDocsService;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.springframework.extensions.webscripts.Cache;
+import org.springframework.extensions.webscripts.Status;
+import org.springframework.extensions.webscripts.WebScriptRequest;
+
+/**
+ * Progress of the upload of a node to Google Docs by the current user, for the client to poll while the upload is
+ * running.
+ */
+public class UploadProgress extends GoogleDocsWebScripts
+{
+    private final static String PARAM_NODEREF = "nodeRef";
+
+    private final static String MODEL_NODEREF        = "nodeRef";
+    private final static String MODEL_STATE          = "state";
+    private final static String MODEL_BYTES_UPLOADED = "bytesUploaded";
+    private final static String MODEL_TOTAL_BYTES    = "totalBytes";
+    private final static String MODEL_PERCENT        = "percent";
+
+    // No upload of the node by the user is known (not started yet, or long finished)
+    private final static String STATE_NONE = "NONE";
+
+    private GoogleDocsService googledocsService;
+
+    public void setGoogledocsService(GoogleDocsService googledocsService)
+    {
+        this.googledocsService = googledocsService;
+    }
+
+    @Override
+    protected Map<String, Object> executeImpl(WebScriptRequest req, Status status, Cache cache)
+    {
+        getGoogleDocsServiceSubsystem();
+
+        Map<String, Object> model = new HashMap<>();
+
+        NodeRef nodeRef = new NodeRef(req.getParameter(PARAM_NODEREF));
+        model.put(MODEL_NODEREF, nodeRef.toString());
+
+        DriveUploader.Progress progress = googledocsService.getUploadProgress(nodeRef);
+        if (progress != null)
+        {
+            model.put(MODEL_STATE, progress.getState().toString());
+            model.put(MODEL_BYTES_UPLOADED, progress.getBytesUploaded());
+            model.put(MODEL_TOTAL_BYTES, progress.getTotalBytes());
+            model.put(MODEL_PERCENT, progress.getPercent());
+        }
+        else
+        {
+            model.put(MODEL_STATE, STATE_NONE);
+            model.put(MODEL_BYTES_UPLOADED, 0L);
+            model.put(MODEL_TOTAL_BYTES, 0L);
+            model.put(MODEL_PERCENT, 0);
+        }
+
+        return model;
+    }
+}
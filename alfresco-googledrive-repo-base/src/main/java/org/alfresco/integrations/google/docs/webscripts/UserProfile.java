@@ -25,6 +25,7 @@ package org.alfresco.integrations.google.docs.webscripts;
 
 import static org.apache.commons.httpclient.HttpStatus.SC_BAD_GATEWAY;
 import static org.apache.commons.httpclient.HttpStatus.SC_INTERNAL_SERVER_ERROR;
+import static org.apache.commons.httpclient.HttpStatus.SC_SERVICE_UNAVAILABLE;
 
 import java.io.IOException;
 import java.util.HashMap;
@@ -33,6 +34,7 @@ import java.util.Map;
 import org.alfresco.integrations.google.docs.exceptions.GoogleDocsAuthenticationException;
 import org.alfresco.integrations.google.docs.exceptions.GoogleDocsRefreshTokenException;
 import org.alfresco.integrations.google.docs.exceptions.GoogleDocsServiceException;
+import org.alfresco.integrations.google.docs.exceptions.GoogleDocsUnavailableException;
 import org.alfresco.integrations.google.docs.service.GoogleDocsService;
 import org.springframework.extensions.webscripts.Cache;
 import org.springframework.extensions.webscripts.Status;
@@ -84,6 +86,10 @@ public class UserProfile extends GoogleDocsWebScripts
                 //model.put(MODEL_LASTNAME, profile.getLastName()); TODO Get last name?
                 model.put(MODEL_ID, user.getPermissionId());
             }
+            catch (GoogleDocsUnavailableException e)
+            {
+                throw new WebScriptException(SC_SERVICE_UNAVAILABLE, e.getMessage());
+            }
             catch (GoogleDocsAuthenticationException | GoogleDocsRefreshTokenException e)
             {
                 throw new WebScriptException(SC_BAD_GATEWAY, e.getMessage());
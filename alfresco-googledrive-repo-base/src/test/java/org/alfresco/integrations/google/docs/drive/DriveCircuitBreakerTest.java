@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software.
+ * -
+ * If the software was purchased under a paid Alfresco license, the terms of
+ * the paid license agreement will prevail.  Otherwise, the software is
+ * provided under the following open source license terms:
+ * -
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * -
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * -
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.alfresco.integrations.google.docs.drive;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import org.alfresco.integrations.google.docs.exceptions.GoogleDocsUnavailableException;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DriveCircuitBreakerTest
+{
+    private DriveCircuitBreaker breaker;
+
+    @Before
+    public void setUp()
+    {
+        breaker = new DriveCircuitBreaker();
+        breaker.setWindowSize(10);
+        breaker.setMinimumCalls(4);
+        breaker.setFailureRateThreshold(50);
+        breaker.setSlowCallThresholdMillis(1000);
+        breaker.setOpenDurationMillis(60000);
+        breaker.setHalfOpenCalls(2);
+        breaker.init();
+    }
+
+    @Test
+    public void testStaysClosedBelowMinimumCalls() throws Exception
+    {
+        call(true);
+        call(true);
+        call(true);
+        assertEquals(DriveCircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void testOpensAtTheFailureRateThreshold() throws Exception
+    {
+        call(false);
+        call(false);
+        call(true);
+        assertEquals(DriveCircuitBreaker.State.CLOSED, breaker.getState());
+        call(true);
+        assertEquals(DriveCircuitBreaker.State.OPEN, breaker.getState());
+        assertEquals(50, breaker.getFailureRate());
+
+        assertRejected();
+        assertEquals(1, breaker.getRejectedCalls());
+    }
+
+    @Test
+    public void testSlowCallsCountAsFailures() throws Exception
+    {
+        for (int i = 0; i < 4; i++)
+        {
+            breaker.acquirePermission();
+            breaker.record(false, 1000);
+        }
+        assertEquals(DriveCircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    @Test
+    public void testSlowTransfersDoNotCountAsFailures() throws Exception
+    {
+        for (int i = 0; i < 4; i++)
+        {
+            breaker.acquirePermission();
+            breaker.record(false, 1000, false);
+        }
+        assertEquals(DriveCircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void testClosesWhenTheHalfOpenProbesSucceed() throws Exception
+    {
+        open(0);
+
+        // The open duration is over: the next call is a probe
+        breaker.acquirePermission();
+        assertEquals(DriveCircuitBreaker.State.HALF_OPEN, breaker.getState());
+        breaker.acquirePermission();
+        assertRejected();
+
+        breaker.record(false, 1);
+        assertEquals(DriveCircuitBreaker.State.HALF_OPEN, breaker.getState());
+        breaker.record(false, 1);
+        assertEquals(DriveCircuitBreaker.State.CLOSED, breaker.getState());
+        assertEquals(0, breaker.getFailureRate());
+    }
+
+    @Test
+    public void testReopensWhenAHalfOpenProbeFails() throws Exception
+    {
+        open(0);
+
+        breaker.acquirePermission();
+        breaker.record(true, 1);
+        assertEquals(DriveCircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    @Test
+    public void testReleasedProbeCanBeTakenAgain() throws Exception
+    {
+        open(0);
+
+        breaker.acquirePermission();
+        breaker.acquirePermission();
+        breaker.release();
+        breaker.acquirePermission();
+        assertRejected();
+        assertEquals(DriveCircuitBreaker.State.HALF_OPEN, breaker.getState());
+    }
+
+    @Test
+    public void testReopensWhenTheProbesDoNotCompleteInTime() throws Exception
+    {
+        breaker.setHalfOpenTimeoutMillis(50);
+        open(0);
+
+        breaker.acquirePermission();
+        Thread.sleep(100);
+        assertRejected();
+        assertEquals(DriveCircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    private void call(boolean failure) throws GoogleDocsUnavailableException
+    {
+        breaker.acquirePermission();
+        breaker.record(failure, 1);
+    }
+
+    /**
+     * Open the breaker with failed calls
+     */
+    private void open(long openDurationMillis) throws GoogleDocsUnavailableException
+    {
+        breaker.setOpenDurationMillis(openDurationMillis);
+        for (int i = 0; i < 4; i++)
+        {
+            call(true);
+        }
+        assertEquals(DriveCircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    private void assertRejected()
+    {
+        try
+        {
+            breaker.acquirePermission();
+            fail("The call was permitted");
+        }
+        catch (GoogleDocsUnavailableException e)
+        {
+            // Expected
+        }
+    }
+}
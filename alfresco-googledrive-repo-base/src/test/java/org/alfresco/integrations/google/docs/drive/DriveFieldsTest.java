@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software.
+ * -
+ * If the software was purchased under a paid Alfresco license, the terms of
+ * the paid license agreement will prevail.  Otherwise, the software is
+ * provided under the following open source license terms:
+ * -
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * -
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * -
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.alfresco.integrations.google.docs.drive;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Field;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class DriveFieldsTest
+{
+    @Test
+    public void testMasksAreWellFormed() throws Exception
+    {
+        for (Field field : DriveFields.class.getFields())
+        {
+            final String mask = (String) field.get(null);
+            assertFalse(field.getName() + " is empty", mask.isEmpty());
+            assertFalse(field.getName() + " has blanks: " + mask, mask.matches(".*\\s.*"));
+
+            int depth = 0;
+            char previous = ',';
+            for (char c : mask.toCharArray())
+            {
+                if (c == ',' || c == ')')
+                {
+                    assertTrue(field.getName() + " has an empty field: " + mask,
+                        previous != ',' && previous != '(');
+                }
+                if (c == '(')
+                {
+                    depth++;
+                }
+                else if (c == ')')
+                {
+                    depth--;
+                    assertTrue(field.getName() + " closes an unopened group: " + mask, depth >= 0);
+                }
+                previous = c;
+            }
+            assertEquals(field.getName() + " has unbalanced groups: " + mask, 0, depth);
+            assertTrue(field.getName() + " ends with an empty field: " + mask, previous != ',');
+        }
+    }
+
+    @Test
+    public void testFileHasTheFieldsReadFromTheResponse()
+    {
+        final List<String> fields = Arrays.asList(DriveFields.FILE.split(","));
+        for (String read : new String[] { "id", "name", "mimeType", "parents", "webViewLink", "size" })
+        {
+            assertTrue(read + " is missing from " + DriveFields.FILE, fields.contains(read));
+        }
+    }
+
+    @Test
+    public void testListsAskForTheirItemsOnly()
+    {
+        assertTrue(DriveFields.FOLDER_LIST.startsWith("nextPageToken,files("));
+        assertTrue(DriveFields.RETAINED_FILE_LIST.startsWith("files("));
+        assertTrue(DriveFields.REVISION_LIST.startsWith("revisions("));
+        assertTrue(DriveFields.PERMISSION_LIST.startsWith("permissions("));
+        assertTrue(DriveFields.ABOUT.startsWith("user("));
+    }
+
+    @Test
+    public void testFolderCheckReadsTheTrashedFlag()
+    {
+        assertEquals("id,trashed", DriveFields.FOLDER);
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software.
+ * -
+ * If the software was purchased under a paid Alfresco license, the terms of
+ * the paid license agreement will prevail.  Otherwise, the software is
+ * provided under the following open source license terms:
+ * -
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * -
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * -
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.alfresco.integrations.google.docs.drive;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.api.client.googleapis.json.GoogleJsonResponseException;
+
+public class DriveQuotaGovernorTest
+{
+    private DriveQuotaGovernor governor;
+
+    @Before
+    public void setUp()
+    {
+        governor = new DriveQuotaGovernor();
+        governor.setGlobalPermitsPerSecond(0);
+        governor.setUserPermitsPerSecond(10);
+        governor.setMaxWaitMillis(1000);
+    }
+
+    @Test
+    public void testRequestWaitsForItsPermit() throws Exception
+    {
+        governor.setUserPermitsPerSecond(20);
+        governor.init();
+
+        governor.acquire("user", 1);
+        governor.acquire("user", 1);
+
+        assertEquals(2, governor.getGrantedPermits());
+        assertTrue(governor.getDelayedRequests() >= 1);
+        assertTrue(governor.getWaitedMillis() > 0);
+        assertEquals(0, governor.getRejectedRequests());
+    }
+
+    @Test
+    public void testRequestIsRejectedAfterMaxWait() throws Exception
+    {
+        governor.setUserPermitsPerSecond(1);
+        governor.setMaxWaitMillis(0);
+        governor.init();
+
+        governor.acquire("user", 1);
+        try
+        {
+            governor.acquire("user", 1);
+            fail("The request was not rejected");
+        }
+        catch (GoogleJsonResponseException e)
+        {
+            assertEquals(429, e.getStatusCode());
+            assertEquals("rateLimitExceeded", DriveRetryPolicy.getReason(e.getDetails()));
+        }
+        assertEquals(1, governor.getRejectedRequests());
+        assertEquals(1, governor.getGrantedPermits());
+    }
+
+    @Test
+    public void testUsersHaveTheirOwnBucket() throws Exception
+    {
+        governor.setUserPermitsPerSecond(1);
+        governor.setMaxWaitMillis(0);
+        governor.init();
+
+        governor.acquire("user1", 1);
+        governor.acquire("user2", 1);
+
+        assertEquals(2, governor.getActiveUsers());
+        assertEquals(0, governor.getRejectedRequests());
+    }
+
+    @Test
+    public void testGlobalLimitAppliesToAllUsers() throws Exception
+    {
+        governor.setGlobalPermitsPerSecond(1);
+        governor.setUserPermitsPerSecond(0);
+        governor.setMaxWaitMillis(0);
+        governor.init();
+
+        governor.acquire("user1", 1);
+        try
+        {
+            governor.acquire("user2", 1);
+            fail("The request was not rejected");
+        }
+        catch (GoogleJsonResponseException e)
+        {
+            assertEquals(429, e.getStatusCode());
+        }
+    }
+
+    @Test
+    public void testGlobalRejectionKeepsThePermitOfTheUser() throws Exception
+    {
+        governor.setGlobalPermitsPerSecond(1);
+        governor.setUserPermitsPerSecond(0.5);
+        governor.setMaxWaitMillis(0);
+        governor.init();
+
+        governor.acquire("user2", 1);
+        try
+        {
+            governor.acquire("user1", 1);
+            fail("The request was not rejected");
+        }
+        catch (GoogleJsonResponseException e)
+        {
+            assertEquals(429, e.getStatusCode());
+        }
+
+        // Once the global bucket has refilled, the bucket of the user still has its permit
+        Thread.sleep(1100);
+        governor.acquire("user1", 1);
+        assertEquals(1, governor.getRejectedRequests());
+        assertEquals(2, governor.getGrantedPermits());
+    }
+
+    @Test
+    public void testBatchWaitsOutItsPermitsAndLeavesNoDebt() throws Exception
+    {
+        governor.setMaxWaitMillis(200);
+        governor.init();
+
+        // Admitted on its first permit as one block, then waits out the rest of the block at the rate of the user
+        final long start = System.currentTimeMillis();
+        governor.acquire("user", 5);
+        assertTrue(System.currentTimeMillis() - start >= 300);
+        assertEquals(5, governor.getGrantedPermits());
+
+        // The next request only waits for its own permit
+        governor.acquire("user", 1);
+        assertEquals(0, governor.getRejectedRequests());
+        assertEquals(6, governor.getGrantedPermits());
+    }
+
+    @Test
+    public void testZeroRateDisablesTheLimits() throws Exception
+    {
+        governor.setUserPermitsPerSecond(0);
+        governor.setMaxWaitMillis(0);
+        governor.init();
+
+        for (int i = 0; i < 100; i++)
+        {
+            governor.acquire("user", 1);
+        }
+        assertEquals(100, governor.getGrantedPermits());
+        assertEquals(0, governor.getRejectedRequests());
+    }
+}
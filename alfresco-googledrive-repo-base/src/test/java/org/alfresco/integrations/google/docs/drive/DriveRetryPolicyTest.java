@@ -0,0 +1,215 @@
+/*
+ * Copyright (C) 2005 - 2020 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software.
+ * -
+ * If the software was purchased under a paid Alfresco license, the terms of
+ * the paid license agreement will prevail.  Otherwise, the software is
+ * provided under the following open source license terms:
+ * -
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * -
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * -
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.alfresco.integrations.google.docs.drive;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.api.client.googleapis.json.GoogleJsonError;
+import com.google.api.client.googleapis.json.GoogleJsonResponseException;
+import com.google.api.client.http.HttpHeaders;
+import com.google.api.client.http.HttpResponseException;
+
+public class DriveRetryPolicyTest
+{
+    private DriveRetryPolicy retryPolicy;
+
+    @Before
+    public void setUp()
+    {
+        retryPolicy = new DriveRetryPolicy();
+        retryPolicy.setMaxAttempts(3);
+        retryPolicy.setInitialIntervalMillis(1);
+        retryPolicy.setMaxIntervalMillis(4);
+        retryPolicy.setMaxElapsedMillis(10000);
+    }
+
+    @Test
+    public void testTooManyRequestsIsAlwaysRetried()
+    {
+        assertTrue(retryPolicy.isRetryable(429, null, true));
+        assertTrue(retryPolicy.isRetryable(429, null, false));
+    }
+
+    @Test
+    public void testForbiddenIsOnlyRetriedForRateLimits()
+    {
+        assertTrue(retryPolicy.isRetryable(403, "rateLimitExceeded", false));
+        assertTrue(retryPolicy.isRetryable(403, "userRateLimitExceeded", false));
+        assertFalse(retryPolicy.isRetryable(403, "insufficientFilePermissions", true));
+        assertFalse(retryPolicy.isRetryable(403, null, true));
+    }
+
+    @Test
+    public void testServerErrorsAreOnlyRetriedWhenIdempotent()
+    {
+        for (int statusCode : new int[] { 500, 502, 503, 504 })
+        {
+            assertTrue(retryPolicy.isRetryable(statusCode, null, true));
+            assertFalse(retryPolicy.isRetryable(statusCode, null, false));
+        }
+    }
+
+    @Test
+    public void testClientErrorsAreNotRetried()
+    {
+        for (int statusCode : new int[] { 400, 401, 404, 409 })
+        {
+            assertFalse(retryPolicy.isRetryable(statusCode, null, true));
+        }
+    }
+
+    @Test
+    public void testDelayIsWithinTheBackoffUnlessGoogleAsksForMore()
+    {
+        retryPolicy.setInitialIntervalMillis(100);
+        retryPolicy.setMaxIntervalMillis(1000);
+        for (int attempt = 1; attempt <= 10; attempt++)
+        {
+            final long delay = retryPolicy.getDelayMillis(attempt, null);
+            assertTrue(delay >= 0 && delay <= Math.min(1000, 100L << (attempt - 1)));
+            assertEquals(5000, retryPolicy.getDelayMillis(attempt, 5000L));
+        }
+    }
+
+    @Test
+    public void testIdempotentCallIsRetriedOnServerError() throws IOException
+    {
+        final AtomicInteger calls = new AtomicInteger();
+        final String response = retryPolicy.execute("files.get", true, () -> {
+            if (calls.incrementAndGet() < 3)
+            {
+                throw error(503, "backendError");
+            }
+            return "ok";
+        });
+        assertEquals("ok", response);
+        assertEquals(3, calls.get());
+    }
+
+    @Test
+    public void testEachAttemptIsRunByTheCallRunner() throws IOException
+    {
+        final AtomicInteger runs = new AtomicInteger();
+        retryPolicy.setCallRunner(new DriveRetryPolicy.DriveCallRunner()
+        {
+            @Override
+            public <T> T run(DriveRetryPolicy.DriveCall<T> call) throws IOException
+            {
+                runs.incrementAndGet();
+                return call.execute();
+            }
+        });
+
+        final AtomicInteger calls = new AtomicInteger();
+        final String response = retryPolicy.execute("files.get", true, () -> {
+            if (calls.incrementAndGet() < 2)
+            {
+                throw error(503, "backendError");
+            }
+            return "ok";
+        });
+        assertEquals("ok", response);
+        assertEquals(2, runs.get());
+    }
+
+    @Test
+    public void testNonIdempotentCallIsNotRetriedOnServerError()
+    {
+        final AtomicInteger calls = new AtomicInteger();
+        try
+        {
+            retryPolicy.execute("files.create", false, () -> {
+                calls.incrementAndGet();
+                throw error(500, "backendError");
+            });
+            fail("The error was not thrown");
+        }
+        catch (IOException e)
+        {
+            assertEquals(500, ((GoogleJsonResponseException) e).getStatusCode());
+        }
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    public void testRateLimitIsRetriedUpToMaxAttempts()
+    {
+        final AtomicInteger calls = new AtomicInteger();
+        try
+        {
+            retryPolicy.execute("files.create", false, () -> {
+                calls.incrementAndGet();
+                throw error(403, "userRateLimitExceeded");
+            });
+            fail("The error was not thrown");
+        }
+        catch (IOException e)
+        {
+            assertEquals(403, ((GoogleJsonResponseException) e).getStatusCode());
+        }
+        assertEquals(3, calls.get());
+    }
+
+    @Test
+    public void testNotFoundIsNotRetried()
+    {
+        final AtomicInteger calls = new AtomicInteger();
+        try
+        {
+            retryPolicy.execute("files.get", true, () -> {
+                calls.incrementAndGet();
+                throw error(404, "notFound");
+            });
+            fail("The error was not thrown");
+        }
+        catch (IOException e)
+        {
+            assertEquals(404, ((GoogleJsonResponseException) e).getStatusCode());
+        }
+        assertEquals(1, calls.get());
+    }
+
+    private static GoogleJsonResponseException error(int statusCode, String reason)
+    {
+        final GoogleJsonError.ErrorInfo errorInfo = new GoogleJsonError.ErrorInfo();
+        errorInfo.setReason(reason);
+
+        final GoogleJsonError error = new GoogleJsonError();
+        error.setCode(statusCode);
+        error.setErrors(Collections.singletonList(errorInfo));
+
+        return new GoogleJsonResponseException(
+            new HttpResponseException.Builder(statusCode, reason, new HttpHeaders()), error);
+    }
+}
@@ -0,0 +1,12 @@
+<#escape x as jsonUtils.encodeJSONString(x)>
+{
+ "jobId": "${jobId}",
+ "nodeRef": "${nodeRef}",
+ "state": "${state}",
+ "success": ${success?string},
+ "version": "${version}",
+ "unchanged": ${unchanged?string},
+ "status": ${status?c},
+ "message": "${message}"
+}
+</#escape>
\ No newline at end of file
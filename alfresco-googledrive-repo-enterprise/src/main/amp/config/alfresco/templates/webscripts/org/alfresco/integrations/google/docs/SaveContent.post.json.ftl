@@ -1,6 +1,12 @@
 <#escape x as jsonUtils.encodeJSONString(x)>
 {
  "success": ${success?string},
- "version": "${version}"
+<#if jobId??>
+ "jobId": "${jobId}",
+ "state": "${state}"
+<#else>
+ "version": "${version}",
+ "unchanged": ${unchanged?string}
+</#if>
 }
 </#escape>
\ No newline at end of file
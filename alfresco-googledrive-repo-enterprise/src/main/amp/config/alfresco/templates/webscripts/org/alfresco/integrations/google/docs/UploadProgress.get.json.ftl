@@ -0,0 +1,9 @@
+<#escape x as jsonUtils.encodeJSONString(x)>
+{
+ "nodeRef": "${nodeRef}",
+ "state": "${state}",
+ "bytesUploaded": ${bytesUploaded?c},
+ "totalBytes": ${totalBytes?c},
+ "percent": ${percent?c}
+}
+</#escape>
\ No newline at end of file